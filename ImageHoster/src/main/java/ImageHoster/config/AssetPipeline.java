@@ -0,0 +1,217 @@
+package ImageHoster.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.resource.HttpResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The static assets (stylesheets and scripts) served to the browsers, processed once when the application starts
+ * The stylesheets are stripped down to the rules using the class names found in the templates and in the scripts (see CssPurger)
+ * Every asset is fingerprinted with the MD5 hash of its processed content, the fingerprinted path 'css/tachyons.min-{hash}.css' identifies one version of the asset
+ * Hence the asset is served under this path with a one year immutable 'Cache-Control', and under its plain path with 'no-cache'
+ * A gzip compressed copy of every asset is kept along with it and served to the browsers accepting the gzip encoding
+ */
+public class AssetPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(AssetPipeline.class);
+
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private static final String REVALIDATE_CACHE_CONTROL = "public, no-cache";
+
+    //The class attributes of the templates, including those set by Thymeleaf
+    private static final Pattern CLASS_ATTRIBUTE = Pattern.compile("(?:\\bclass|th:class|th:classappend)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+
+    //The string literals of the scripts, which may hold the class names set on the elements they create
+    private static final Pattern STRING_LITERAL = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"|'((?:[^'\\\\]|\\\\.)*)'");
+
+    //The comments of the scripts, whose apostrophes would be taken for the quotes of string literals
+    private static final Pattern SCRIPT_COMMENT = Pattern.compile("(?m)^\\s*//.*$|/\\*[\\s\\S]*?\\*/");
+
+    private static final Pattern CLASS_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private static final String STATIC_LOCATION = "/static/";
+
+    //Every asset by its plain path and by its fingerprinted path, relative to the 'static' directory
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    private final long lastModified = System.currentTimeMillis();
+
+    /**
+     * @param resources   - Finds the templates and the assets on the classpath
+     * @param directories - The directories of 'static' holding the assets, such as 'css/'
+     * @throws IOException
+     */
+    public AssetPipeline(ResourcePatternResolver resources, String... directories) throws IOException {
+        Set<String> usedClasses = new HashSet<>();
+        for (Resource template : resources.getResources("classpath*:templates/**/*.html")) {
+            collectClassNames(CLASS_ATTRIBUTE, read(template), usedClasses);
+        }
+
+        Map<String, String> scripts = new TreeMap<>();
+        Map<String, String> stylesheets = new TreeMap<>();
+        for (String directory : directories) {
+            for (Resource script : resources.getResources("classpath*:static/" + directory + "**/*.js")) {
+                scripts.put(pathOf(script), read(script));
+            }
+            for (Resource stylesheet : resources.getResources("classpath*:static/" + directory + "**/*.css")) {
+                stylesheets.put(pathOf(stylesheet), read(stylesheet));
+            }
+        }
+        for (String script : scripts.values()) {
+            collectClassNames(STRING_LITERAL, SCRIPT_COMMENT.matcher(script).replaceAll(""), usedClasses);
+        }
+
+        for (Map.Entry<String, String> script : scripts.entrySet()) {
+            add(script.getKey(), script.getValue());
+        }
+        for (Map.Entry<String, String> stylesheet : stylesheets.entrySet()) {
+            Asset asset = add(stylesheet.getKey(), CssPurger.purge(stylesheet.getValue(), usedClasses));
+            log.info("Stripped {} from {} to {} bytes, {} bytes with gzip", stylesheet.getKey(), stylesheet.getValue().length(), asset.content.length,
+                    asset.gzipped != null ? asset.gzipped.length : asset.content.length);
+        }
+    }
+
+    //The method returns the fingerprinted path of the asset with the received plain path, null if there is no such asset
+    public String getVersionedPath(String path) {
+        Asset asset = assets.get(path);
+        return asset != null ? asset.versionedPath : null;
+    }
+
+    /**
+     * The method returns the asset with the received plain or fingerprinted path as a resource to be served
+     *
+     * @param path       - The path of the asset relative to the 'static' directory
+     * @param acceptGzip - true if the browser accepts the gzip encoding
+     * @return - The asset, gzip compressed if accepted, and null if there is no such asset
+     */
+    public Resource getResource(String path, boolean acceptGzip) {
+        Asset asset = assets.get(path);
+        if (asset == null) {
+            return null;
+        }
+        boolean gzip = acceptGzip && asset.gzipped != null;
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl(path.equals(asset.versionedPath) ? IMMUTABLE_CACHE_CONTROL : REVALIDATE_CACHE_CONTROL);
+        if (asset.gzipped != null) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzip) {
+            headers.add(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return new AssetResource(gzip ? asset.gzipped : asset.content, StringUtils.getFilename(asset.path), lastModified, headers);
+    }
+
+    private Asset add(String path, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        String extension = StringUtils.getFilenameExtension(path);
+        String versionedPath = StringUtils.stripFilenameExtension(path) + "-" + DigestUtils.md5DigestAsHex(bytes) + (extension != null ? "." + extension : "");
+        byte[] gzipped = gzip(bytes);
+        Asset asset = new Asset(path, versionedPath, bytes, gzipped.length < bytes.length ? gzipped : null);
+        assets.put(path, asset);
+        assets.put(versionedPath, asset);
+        return asset;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void collectClassNames(Pattern pattern, String text, Set<String> classNames) {
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            Matcher names = CLASS_NAME.matcher(matcher.group(matcher.group(1) != null ? 1 : 2));
+            while (names.find()) {
+                classNames.add(names.group());
+            }
+        }
+    }
+
+    //The path of the asset relative to the 'static' directory
+    private static String pathOf(Resource resource) throws IOException {
+        String url = resource.getURL().toString();
+        return url.substring(url.lastIndexOf(STATIC_LOCATION) + STATIC_LOCATION.length());
+    }
+
+    private static String read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class Asset {
+
+        private final String path;
+
+        private final String versionedPath;
+
+        private final byte[] content;
+
+        //null if compressing the asset does not make it smaller
+        private final byte[] gzipped;
+
+        Asset(String path, String versionedPath, byte[] content, byte[] gzipped) {
+            this.path = path;
+            this.versionedPath = versionedPath;
+            this.content = content;
+            this.gzipped = gzipped;
+        }
+    }
+
+    //The bytes of an asset along with the name its media type is derived from and the headers it is served with
+    private static class AssetResource extends ByteArrayResource implements HttpResource {
+
+        private final String filename;
+
+        private final long lastModified;
+
+        private final HttpHeaders headers;
+
+        AssetResource(byte[] bytes, String filename, long lastModified, HttpHeaders headers) {
+            super(bytes, filename);
+            this.filename = filename;
+            this.lastModified = lastModified;
+            this.headers = headers;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public HttpHeaders getResponseHeaders() {
+            return headers;
+        }
+    }
+}
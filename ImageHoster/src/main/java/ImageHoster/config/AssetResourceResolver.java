@@ -0,0 +1,44 @@
+package ImageHoster.config;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.web.servlet.resource.AbstractResourceResolver;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+/**
+ * Resolves the requests of the static assets of one directory to the processed assets of the AssetPipeline
+ * The files of the directory which are not assets, such as images or fonts, are left to the next resolver of the chain
+ */
+class AssetResourceResolver extends AbstractResourceResolver {
+
+    private final AssetPipeline assetPipeline;
+
+    //The directory of 'static' served by the resource handler, such as 'css/'
+    private final String directory;
+
+    AssetResourceResolver(AssetPipeline assetPipeline, String directory) {
+        this.assetPipeline = assetPipeline;
+        this.directory = directory;
+    }
+
+    @Override
+    protected Resource resolveResourceInternal(@Nullable HttpServletRequest request, String requestPath, List<? extends Resource> locations, ResourceResolverChain chain) {
+        Resource asset = assetPipeline.getResource(directory + requestPath, request != null && acceptsGzip(request));
+        return asset != null ? asset : chain.resolveResource(request, requestPath, locations);
+    }
+
+    @Override
+    protected String resolveUrlPathInternal(String resourceUrlPath, List<? extends Resource> locations, ResourceResolverChain chain) {
+        String versionedPath = assetPipeline.getVersionedPath(directory + resourceUrlPath);
+        return versionedPath != null ? versionedPath.substring(directory.length()) : chain.resolveUrlPath(resourceUrlPath, locations);
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+}
@@ -0,0 +1,50 @@
+package ImageHoster.config;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * Rewrites the links to the static assets to their fingerprinted paths, such as '/css/tachyons.min.css' to '/css/tachyons.min-{hash}.css'
+ * Thymeleaf passes every link written with '@{...}' to HttpServletResponse.encodeURL(), which the response is wrapped to override
+ * The paths are looked up in the AssetPipeline held in memory, the other links are left as they are
+ */
+public class AssetUrlEncodingFilter extends OncePerRequestFilter {
+
+    private final AssetPipeline assetPipeline;
+
+    public AssetUrlEncodingFilter(AssetPipeline assetPipeline) {
+        this.assetPipeline = assetPipeline;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        String contextPath = request.getContextPath();
+        filterChain.doFilter(request, new HttpServletResponseWrapper(response) {
+            @Override
+            public String encodeURL(String url) {
+                return super.encodeURL(versioned(contextPath, url));
+            }
+        });
+    }
+
+    private String versioned(String contextPath, String url) {
+        if (!url.startsWith(contextPath + "/")) {
+            return url;
+        }
+        int end = url.length();
+        for (char separator : new char[]{'?', '#'}) {
+            int index = url.indexOf(separator);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        String versionedPath = assetPipeline.getVersionedPath(url.substring(contextPath.length() + 1, end));
+        return versionedPath != null ? contextPath + "/" + versionedPath + url.substring(end) : url;
+    }
+}
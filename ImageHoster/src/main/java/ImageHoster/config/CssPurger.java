@@ -0,0 +1,148 @@
+package ImageHoster.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Strips a stylesheet down to the rules the pages can use
+ * A style rule is kept if one of its selectors only refers to used class names, selectors without any class, such as the element selectors of normalize.css, are always kept
+ * The rules nested in '@media' and '@supports' blocks are stripped the same way and an emptied block is dropped. Other at-rules such as '@font-face' or '@keyframes' are kept as they are
+ * Comments are dropped, except the license comments starting with '/*!'
+ */
+final class CssPurger {
+
+    private static final Pattern CLASS_SELECTOR = Pattern.compile("\\.(-?[_a-zA-Z][_a-zA-Z0-9-]*)");
+
+    //The quoted strings and the attribute selectors of a selector, which may hold dots not starting a class name
+    private static final Pattern STRINGS_AND_ATTRIBUTES = Pattern.compile("\"[^\"]*\"|'[^']*'|\\[[^\\]]*\\]");
+
+    private CssPurger() {
+    }
+
+    /**
+     * @param css         - The stylesheet
+     * @param usedClasses - The class names used by the pages
+     * @return - The stylesheet holding only the rules the pages can use
+     */
+    static String purge(String css, Set<String> usedClasses) {
+        StringBuilder purged = new StringBuilder(css.length() / 4);
+        purgeBlock(css, 0, css.length(), usedClasses, purged);
+        return purged.toString();
+    }
+
+    private static void purgeBlock(String css, int from, int to, Set<String> usedClasses, StringBuilder purged) {
+        int position = from;
+        while (position < to) {
+            if (Character.isWhitespace(css.charAt(position))) {
+                position++;
+                continue;
+            }
+            if (css.startsWith("/*", position)) {
+                int end = css.indexOf("*/", position + 2);
+                end = end < 0 || end + 2 > to ? to : end + 2;
+                if (css.startsWith("/*!", position)) {
+                    purged.append(css, position, end).append('\n');
+                }
+                position = end;
+                continue;
+            }
+
+            int open = skipTo(css, position, to, "{;");
+            if (open == to || css.charAt(open) == ';') {
+                //A statement without a block, such as '@charset' or '@import'
+                int end = Math.min(open + 1, to);
+                purged.append(css, position, end).append('\n');
+                position = end;
+                continue;
+            }
+            int close = skipTo(css, open + 1, to, "}");
+            String prelude = css.substring(position, open).trim();
+            if (prelude.startsWith("@media") || prelude.startsWith("@supports")) {
+                StringBuilder nested = new StringBuilder();
+                purgeBlock(css, open + 1, close, usedClasses, nested);
+                if (nested.length() > 0) {
+                    purged.append(prelude).append(" {\n").append(nested).append("}\n");
+                }
+            } else if (prelude.startsWith("@")) {
+                purged.append(css, position, Math.min(close + 1, to)).append('\n');
+            } else {
+                List<String> selectors = new ArrayList<>();
+                for (String selector : splitSelectors(prelude)) {
+                    if (isUsed(selector, usedClasses)) {
+                        selectors.add(selector);
+                    }
+                }
+                if (!selectors.isEmpty()) {
+                    purged.append(String.join(",", selectors)).append('{').append(css.substring(open + 1, close).trim()).append("}\n");
+                }
+            }
+            position = Math.min(close + 1, to);
+        }
+    }
+
+    private static boolean isUsed(String selector, Set<String> usedClasses) {
+        Matcher classes = CLASS_SELECTOR.matcher(STRINGS_AND_ATTRIBUTES.matcher(selector).replaceAll(""));
+        while (classes.find()) {
+            if (!usedClasses.contains(classes.group(1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //The selectors of a rule are separated by the commas found outside of any parentheses, brackets or quotes
+    private static List<String> splitSelectors(String prelude) {
+        List<String> selectors = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < prelude.length(); i++) {
+            char c = prelude.charAt(i);
+            if (quote != 0) {
+                quote = c == quote ? 0 : quote;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                selectors.add(prelude.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        selectors.add(prelude.substring(start).trim());
+        return selectors;
+    }
+
+    //The position of the first of the received characters found outside of quotes and comments, at the nesting level of the starting position
+    private static int skipTo(String css, int from, int to, String stops) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = from; i < to; i++) {
+            char c = css.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '/' && css.startsWith("/*", i)) {
+                int end = css.indexOf("*/", i + 2);
+                i = end < 0 ? to : end + 1;
+            } else if (depth == 0 && stops.indexOf(c) >= 0) {
+                return i;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            }
+        }
+        return to;
+    }
+}
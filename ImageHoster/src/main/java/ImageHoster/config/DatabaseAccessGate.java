@@ -0,0 +1,140 @@
+package ImageHoster.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.util.ClassUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of threads holding a database connection at the same time, used along with the virtual thread mode (see VirtualThreadConfig)
+ * The DataSource of the persistence unit is wrapped so that getting a connection takes a permit of a fair semaphore, and closing the connection gives it back
+ * With virtual threads thousands of requests may reach the database at once. They wait for a permit in the order they came, parked without holding a thread of their own,
+ * instead of all of them crowding the connection pool, which hands its connections out in no particular order and fails the requests waiting longer than its connection timeout
+ * The number of threads waiting for a permit and the number of permits left are published as the 'db.access.waiting' and 'db.access.available' metrics
+ */
+public class DatabaseAccessGate implements MeterBinder {
+
+    private final int permitCount;
+
+    private final Semaphore permits;
+
+    private final long timeoutMillis;
+
+    /**
+     * @param permits       - Maximum number of connections held at the same time, usually the maximum size of the connection pool
+     * @param timeoutMillis - Maximum time to wait for a permit before getting a connection fails, usually the connection timeout of the pool
+     */
+    public DatabaseAccessGate(int permits, long timeoutMillis) {
+        this.permitCount = permits;
+        this.permits = new Semaphore(permits, true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getPermits() {
+        return permitCount;
+    }
+
+    /**
+     * The method wraps the DataSource so that every connection it returns holds a permit until it is closed
+     *
+     * @param dataSource - The DataSource to be limited
+     * @return - The limited DataSource
+     */
+    public DataSource limit(DataSource dataSource) {
+        return proxy(dataSource, new DataSourceHandler(dataSource));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("db.access.waiting", permits, Semaphore::getQueueLength)
+                .description("Threads waiting for a permit to get a database connection")
+                .register(registry);
+        Gauge.builder("db.access.available", permits, Semaphore::availablePermits)
+                .description("Permits left to get a database connection")
+                .register(registry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(T target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(target.getClass().getClassLoader(), ClassUtils.getAllInterfaces(target), handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private class DataSourceHandler implements InvocationHandler {
+
+        private final DataSource target;
+
+        DataSourceHandler(DataSource target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!"getConnection".equals(method.getName())) {
+                return DatabaseAccessGate.invoke(target, method, args);
+            }
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("No permit to get a database connection after " + timeoutMillis + " ms, "
+                        + permits.getQueueLength() + " threads waiting");
+            }
+            try {
+                Connection connection = (Connection) DatabaseAccessGate.invoke(target, method, args);
+                return proxy(connection, new ConnectionHandler(connection));
+            } catch (Throwable e) {
+                permits.release();
+                throw e;
+            }
+        }
+    }
+
+    //The permit is given back on the first call to close(), a connection closed twice gives it back once
+    private class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name) && method.getParameterCount() == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name) && method.getParameterCount() == 0) {
+                return System.identityHashCode(proxy);
+            }
+            if (!"close".equals(name) || method.getParameterCount() != 0) {
+                return DatabaseAccessGate.invoke(target, method, args);
+            }
+            try {
+                return DatabaseAccessGate.invoke(target, method, args);
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ImageHoster.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diagnostic mode enabled with the 'imagehoster.jpa.leak-detection' property, meant for test environments and not for production
+ * Every EntityManager created by the EntityManagerFactory is recorded along with the stack trace of its creation until it is closed
+ * The number of open EntityManagers is published as the 'jpa.entitymanagers.open' metric
+ * As a servlet filter it checks at the end of every request that the EntityManagers created while handling the request have been closed, and logs the creation stack trace of those left open
+ */
+public class EntityManagerLeakDetector extends OncePerRequestFilter implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityManagerLeakDetector.class);
+
+    //The open EntityManagers and the stack trace of the place where they were created
+    private final Map<EntityManager, Throwable> open = new ConcurrentHashMap<>();
+
+    //The EntityManagers created by the current thread while it handles a request, null if the thread is not handling a request
+    private final ThreadLocal<List<EntityManager>> createdInRequest = new ThreadLocal<>();
+
+    /**
+     * The method wraps the EntityManagerFactory so that every EntityManager it creates is recorded until it is closed
+     * The wrapper implements the same interfaces as the wrapped factory, including the Spring EntityManagerFactoryInfo interface
+     * The native factory returned by getNativeEntityManagerFactory() is wrapped as well, since the Spring transaction manager creates its EntityManagers with it
+     *
+     * @param emf - The EntityManagerFactory to be tracked
+     * @return - The tracking EntityManagerFactory
+     */
+    public EntityManagerFactory track(EntityManagerFactory emf) {
+        return (EntityManagerFactory) Proxy.newProxyInstance(emf.getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(emf), new FactoryHandler(emf));
+    }
+
+    public int getOpenCount() {
+        return open.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("jpa.entitymanagers.open", open, Map::size)
+                .description("EntityManagers created and not closed yet")
+                .register(registry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        List<EntityManager> created = new ArrayList<>();
+        createdInRequest.set(created);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            createdInRequest.remove();
+            //The EntityManager of an asynchronous request is closed on the thread completing the request, hence it is not checked here
+            if (!request.isAsyncStarted()) {
+                for (EntityManager em : created) {
+                    Throwable creation = open.get(em);
+                    if (creation != null) {
+                        log.warn("EntityManager created during {} {} is still open after the request, {} EntityManagers are open",
+                                request.getMethod(), request.getRequestURI(), open.size(), creation);
+                    }
+                }
+            }
+        }
+    }
+
+    private EntityManager register(EntityManager em) {
+        EntityManager tracked = (EntityManager) Proxy.newProxyInstance(em.getClass().getClassLoader(),
+                ClassUtils.getAllInterfaces(em), new EntityManagerHandler(em));
+        open.put(tracked, new Throwable("EntityManager created on thread " + Thread.currentThread().getName()));
+        List<EntityManager> created = createdInRequest.get();
+        if (created != null) {
+            created.add(tracked);
+        }
+        return tracked;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private class FactoryHandler implements InvocationHandler {
+
+        private final EntityManagerFactory target;
+
+        FactoryHandler(EntityManagerFactory target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getNativeEntityManagerFactory":
+                    return track((EntityManagerFactory) EntityManagerLeakDetector.invoke(target, method, args));
+                default:
+                    Object result = EntityManagerLeakDetector.invoke(target, method, args);
+                    return result instanceof EntityManager ? register((EntityManager) result) : result;
+            }
+        }
+    }
+
+    private class EntityManagerHandler implements InvocationHandler {
+
+        private final EntityManager target;
+
+        EntityManagerHandler(EntityManager target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    open.remove(proxy);
+                    return EntityManagerLeakDetector.invoke(target, method, args);
+                default:
+                    return EntityManagerLeakDetector.invoke(target, method, args);
+            }
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package ImageHoster.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 
 import javax.persistence.EntityManagerFactory;
@@ -11,22 +17,62 @@ import javax.sql.DataSource;
 @Configuration
 public class JpaConfig {
 
+    //Number of ids reserved by a single call to the sequence of an entity
+    @Value("${imagehoster.id.allocation-size:50}")
+    private int idAllocationSize;
+
+    //The persistence unit gets its connections from the pooled DataSource below instead of opening its own connections
+    //The schema, including the id sequences, is created and migrated by Flyway before the factory is created (see db/migration)
+    //In the leak detection mode the factory is wrapped so that every EntityManager it creates is tracked until it is closed
+    //With the SQL inspection enabled the DataSource is wrapped so that the statements of every request are recorded
+    //In the virtual thread mode the DataSource is also wrapped so that only a limited number of threads hold a connection at the same time (see VirtualThreadConfig)
     @Bean
-    public EntityManagerFactory entityManagerFactory() {
+    public EntityManagerFactory entityManagerFactory(DataSource dataSource, ObjectProvider<EntityManagerLeakDetector> leakDetector, ObjectProvider<SqlInspector> sqlInspector,
+                                                     ObjectProvider<DatabaseAccessGate> databaseAccessGate) {
         LocalContainerEntityManagerFactoryBean emfb = new LocalContainerEntityManagerFactoryBean();
         emfb.setPersistenceXmlLocation("classpath:META-INF/persistence.xml");
+        SqlInspector inspector = sqlInspector.getIfAvailable();
+        DatabaseAccessGate gate = databaseAccessGate.getIfAvailable();
+        DataSource limited = gate != null ? gate.limit(dataSource) : dataSource;
+        emfb.setDataSource(inspector != null ? inspector.inspect(limited) : limited);
+        emfb.getJpaPropertyMap().put(PooledSequenceGenerator.ALLOCATION_SIZE_SETTING, idAllocationSize);
         emfb.afterPropertiesSet();
-        return emfb.getObject();
+        EntityManagerFactory emf = emfb.getObject();
+        EntityManagerLeakDetector detector = leakDetector.getIfAvailable();
+        return detector != null ? detector.track(emf) : emf;
     }
 
+    //Hibernate validates the schema when the factory is created, hence the factory waits for Flyway to migrate it
+    //Spring Boot adds this dependency only to the factories declared as a LocalContainerEntityManagerFactoryBean, not to the factory declared above
     @Bean
-    public DataSource dataSource() {
-        DriverManagerDataSource ds = new DriverManagerDataSource();
-        ds.setDriverClassName("org.postgresql.Driver");
-        ds.setUrl("jdbc:postgresql://localhost:5432/imageHoster");
-        ds.setUsername("postgres");
-        ds.setPassword("password");
-        return ds;
+    public static EntityManagerFactoryDependsOnPostProcessor entityManagerFactoryDependsOnFlyway() {
+        return new EntityManagerFactoryDependsOnPostProcessor("flywayInitializer");
+    }
+
+    //Diagnostic mode counting the open EntityManagers and logging those left open after a request, enabled with 'imagehoster.jpa.leak-detection=true'
+    @Bean
+    @ConditionalOnProperty("imagehoster.jpa.leak-detection")
+    public EntityManagerLeakDetector entityManagerLeakDetector() {
+        return new EntityManagerLeakDetector();
     }
-}
 
+    //Records the number, rows and time of the SQL statements of every request and detects the likely N+1 query patterns, disabled with 'imagehoster.sql.inspection=false'
+    @Bean
+    @ConditionalOnProperty(value = "imagehoster.sql.inspection", matchIfMissing = true)
+    public SqlInspector sqlInspector(@Value("${imagehoster.sql.n-plus-one-threshold:5}") int nPlusOneThreshold,
+                                     @Value("${imagehoster.sql.stats-header:false}") boolean statsHeader) {
+        return new SqlInspector(nPlusOneThreshold, statsHeader);
+    }
+
+    /**
+     * The connection pool shared by all the repositories
+     * The url, username and password are bound from the 'spring.datasource.*' properties and the pool settings (size, timeouts) from the 'spring.datasource.hikari.*' properties
+     * Hence every environment can override them in its own application properties or with environment variables such as SPRING_DATASOURCE_URL
+     * The pool publishes its active, idle and pending connection counts and the connection acquisition time as 'hikaricp.*' metrics
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+}
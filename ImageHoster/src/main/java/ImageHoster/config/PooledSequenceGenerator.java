@@ -0,0 +1,31 @@
+package ImageHoster.config;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * Identifier generator of the entities, each entity has its own database sequence named in the mapping with the 'sequence_name' parameter
+ * A single call to the sequence reserves a block of 'imagehoster.id.allocation-size' identifiers, which are then handed out in memory by the pooled optimizer
+ * Hence inserting a batch of rows costs one sequence round trip per block instead of one per row
+ * The sequences are created by the V1 migration and their increment is aligned with the allocation size at startup by the afterMigrate.sql callback
+ */
+public class PooledSequenceGenerator extends SequenceStyleGenerator {
+
+    //Name of the persistence unit property holding the allocation size, set by JpaConfig
+    public static final String ALLOCATION_SIZE_SETTING = "imagehoster.id.allocation-size";
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        Object allocationSize = serviceRegistry.getService(ConfigurationService.class).getSettings().get(ALLOCATION_SIZE_SETTING);
+        if (allocationSize != null) {
+            params.setProperty(INCREMENT_PARAM, allocationSize.toString());
+        }
+        params.setProperty(OPT_PARAM, "pooled");
+        super.configure(type, params, serviceRegistry);
+    }
+}
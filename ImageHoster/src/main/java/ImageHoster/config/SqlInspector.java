@@ -0,0 +1,264 @@
+package ImageHoster.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Records the SQL statements executed while handling every HTTP request, enabled with the 'imagehoster.sql.inspection' property
+ * The DataSource of the persistence unit is wrapped so that every statement sent to the database is counted, timed, and grouped by its shape along with the number of rows it returns
+ * As a servlet filter it records the statements of every request and publishes their number, rows and time as the 'sql.request.*' metrics, tagged with the uri pattern of the request
+ * A statement shape executed at least 'imagehoster.sql.n-plus-one-threshold' times in a request is logged as a likely N+1 query pattern and counted in the 'sql.request.nplusone' metric
+ * With 'imagehoster.sql.stats-header=true' (development only, the response is buffered) the statistics of the request are sent in the 'X-SQL-Stats' response header
+ * Only the statements executed on the request thread are recorded, not those of the background tasks started by the request
+ */
+public class SqlInspector extends OncePerRequestFilter implements MeterBinder {
+
+    public static final String STATS_HEADER = "X-SQL-Stats";
+
+    private static final Logger log = LoggerFactory.getLogger(SqlInspector.class);
+
+    //The literal strings and numbers of a statement, replaced by '?' in its shape
+    private static final Pattern LITERALS = Pattern.compile("'(?:[^']|'')*'|\\b\\d+\\b");
+
+    private final int nPlusOneThreshold;
+
+    private final boolean statsHeader;
+
+    //The statistics recording the statements of the current thread, usually the statistics of the request and those opened by a test
+    private final ThreadLocal<List<SqlStatistics>> recording = ThreadLocal.withInitial(ArrayList::new);
+
+    private MeterRegistry registry;
+
+    public SqlInspector(int nPlusOneThreshold, boolean statsHeader) {
+        this.nPlusOneThreshold = nPlusOneThreshold;
+        this.statsHeader = statsHeader;
+    }
+
+    /**
+     * The method wraps the DataSource so that the statements executed on its connections are recorded
+     * The statements executed while no statistics are recording are passed through untouched
+     *
+     * @param dataSource - The DataSource to be inspected
+     * @return - The inspecting DataSource
+     */
+    public DataSource inspect(DataSource dataSource) {
+        return proxy(dataSource, new DataSourceHandler(dataSource));
+    }
+
+    /**
+     * The method starts recording the statements executed by the current thread until the returned statistics are closed
+     * It is meant for the tests asserting the number of statements run by some code, for example:
+     * try (SqlStatistics statistics = sqlInspector.startRecording()) { ... } assertTrue(statistics.getStatementCount() <= 3);
+     *
+     * @return - The statistics recording the statements
+     */
+    public SqlStatistics startRecording() {
+        return new SqlStatistics(recording.get());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        HttpServletResponse target = statsHeader ? new ContentCachingResponseWrapper(response) : response;
+        SqlStatistics statistics = startRecording();
+        try {
+            filterChain.doFilter(request, target);
+        } finally {
+            statistics.close();
+            report(request, statistics);
+            if (statsHeader) {
+                response.setHeader(STATS_HEADER, statistics.toString() + ", repeated=" + statistics.getRepeatedStatements(nPlusOneThreshold).size());
+                ((ContentCachingResponseWrapper) target).copyBodyToResponse();
+            }
+        }
+    }
+
+    private void report(HttpServletRequest request, SqlStatistics statistics) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+        Map<String, Integer> repeated = statistics.getRepeatedStatements(nPlusOneThreshold);
+
+        for (Map.Entry<String, Integer> entry : repeated.entrySet()) {
+            log.warn("Possible N+1 query pattern in {} {}: statement executed {} times: {}",
+                    request.getMethod(), request.getRequestURI(), entry.getValue(), entry.getKey());
+        }
+        log.debug("{} {}: {}", request.getMethod(), request.getRequestURI(), statistics);
+
+        if (registry != null) {
+            DistributionSummary.builder("sql.request.statements").description("SQL statements executed per request")
+                    .tag("uri", uri).register(registry).record(statistics.getStatementCount());
+            DistributionSummary.builder("sql.request.rows").description("Rows fetched from the database per request")
+                    .tag("uri", uri).register(registry).record(statistics.getRowCount());
+            Timer.builder("sql.request.time").description("Time spent executing SQL statements per request")
+                    .tag("uri", uri).register(registry).record(statistics.getTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            if (!repeated.isEmpty()) {
+                Counter.builder("sql.request.nplusone").description("Requests executing the same statement at least the N+1 threshold times")
+                        .tag("uri", uri).register(registry).increment();
+            }
+        }
+    }
+
+    private static String shapeOf(String sql) {
+        return LITERALS.matcher(sql).replaceAll("?");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(T target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(target.getClass().getClassLoader(), ClassUtils.getAllInterfaces(target), handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    //The equals() and hashCode() methods of a proxy compare the proxies themselves, as Hibernate keeps the statements of a connection in a HashMap
+    private static Object identity(Object proxy, Method method, Object[] args) {
+        return "equals".equals(method.getName()) ? (Object) (proxy == args[0]) : (Object) System.identityHashCode(proxy);
+    }
+
+    private static boolean isIdentityMethod(Method method) {
+        return ("equals".equals(method.getName()) && method.getParameterCount() == 1) || ("hashCode".equals(method.getName()) && method.getParameterCount() == 0);
+    }
+
+    private class DataSourceHandler implements InvocationHandler {
+
+        private final DataSource target;
+
+        DataSourceHandler(DataSource target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (isIdentityMethod(method)) {
+                return identity(proxy, method, args);
+            }
+            Object result = SqlInspector.invoke(target, method, args);
+            return result instanceof Connection ? proxy(result, new ConnectionHandler((Connection) result)) : result;
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (isIdentityMethod(method)) {
+                return identity(proxy, method, args);
+            }
+            Object result = SqlInspector.invoke(target, method, args);
+            if (result instanceof Statement) {
+                //The SQL of a prepared statement is received when it is prepared, the SQL of a plain statement when it is executed
+                String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+                return proxy(result, new StatementHandler((Statement) result, sql));
+            }
+            return result;
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+
+        private final Statement target;
+
+        private final String preparedSql;
+
+        StatementHandler(Statement target, String preparedSql) {
+            this.target = target;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (isIdentityMethod(method)) {
+                return identity(proxy, method, args);
+            }
+            List<SqlStatistics> active = recording.get();
+            if (active.isEmpty()) {
+                return SqlInspector.invoke(target, method, args);
+            }
+
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                Object result = SqlInspector.invoke(target, method, args);
+                return "getResultSet".equals(name) && result != null ? proxy(result, new ResultSetHandler((ResultSet) result)) : result;
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            long start = System.nanoTime();
+            try {
+                Object result = SqlInspector.invoke(target, method, args);
+                return result instanceof ResultSet ? proxy(result, new ResultSetHandler((ResultSet) result)) : result;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                String shape = name.endsWith("Batch") ? "batch: " + shapeOf(String.valueOf(sql)) : shapeOf(String.valueOf(sql));
+                for (SqlStatistics statistics : active) {
+                    statistics.statementExecuted(shape, elapsed);
+                }
+            }
+        }
+    }
+
+    private class ResultSetHandler implements InvocationHandler {
+
+        private final ResultSet target;
+
+        ResultSetHandler(ResultSet target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (isIdentityMethod(method)) {
+                return identity(proxy, method, args);
+            }
+            Object result = SqlInspector.invoke(target, method, args);
+            if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                for (SqlStatistics statistics : recording.get()) {
+                    statistics.rowFetched();
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ImageHoster.config;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SQL statements executed by one thread while the statistics were recording, as collected by the SqlInspector
+ * The statistics of an HTTP request are recorded by the SqlInspector filter, and a test can record the statements of any code with SqlInspector.startRecording()
+ * Statements are grouped by their shape, i.e. their SQL text with the literal values replaced by '?'. A shape executed many times in a row is the typical sign of an N+1 query pattern
+ * The statistics stop recording when they are closed and are not meant to be shared between threads
+ */
+public class SqlStatistics implements AutoCloseable {
+
+    private final List<SqlStatistics> recording;
+
+    private int statementCount;
+
+    private long rowCount;
+
+    private long nanos;
+
+    //Number of executions of every statement shape, in the order of their first execution
+    private final Map<String, Integer> shapes = new LinkedHashMap<>();
+
+    SqlStatistics(List<SqlStatistics> recording) {
+        this.recording = recording;
+        recording.add(this);
+    }
+
+    void statementExecuted(String shape, long elapsedNanos) {
+        statementCount++;
+        nanos += elapsedNanos;
+        shapes.merge(shape, 1, Integer::sum);
+    }
+
+    void rowFetched() {
+        rowCount++;
+    }
+
+    //Number of statements sent to the database, a JDBC batch counts as one statement
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    //Number of rows read from the result sets of the statements
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    //Time spent executing the statements, not including the time spent reading their result sets
+    public long getTime(TimeUnit unit) {
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    //Number of executions of every statement shape
+    public Map<String, Integer> getStatementShapes() {
+        return shapes;
+    }
+
+    /**
+     * The method returns the statement shapes executed at least the received number of times, the likely N+1 query patterns
+     *
+     * @param threshold - Minimum number of executions of a shape
+     * @return - The shapes executed at least threshold times along with their number of executions
+     */
+    public Map<String, Integer> getRepeatedStatements(int threshold) {
+        Map<String, Integer> repeated = new LinkedHashMap<>();
+        shapes.forEach((shape, count) -> {
+            if (count >= threshold) {
+                repeated.put(shape, count);
+            }
+        });
+        return repeated;
+    }
+
+    //The statistics stop recording, the values recorded so far are kept
+    @Override
+    public void close() {
+        recording.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        return "statements=" + statementCount + ", rows=" + rowCount + ", time=" + getTime(TimeUnit.MILLISECONDS) + "ms";
+    }
+}
@@ -0,0 +1,54 @@
+package ImageHoster.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.PathResourceResolver;
+
+import java.io.IOException;
+
+/**
+ * Serves the stylesheets and scripts of the 'static' directory through the AssetPipeline: stripped, fingerprinted and gzip compressed when the application starts
+ * The links to the assets written with '@{...}' in the templates are rewritten to the fingerprinted paths by the AssetUrlEncodingFilter
+ * Spring's VersionResourceResolver, GzipResourceResolver and ResourceUrlEncodingFilter are not used: the stripped stylesheets only exist in memory,
+ * the Cache-Control of a fingerprinted path differs from the one of its plain path, and the links of the pages are looked up in memory instead of on the classpath
+ */
+@Configuration
+public class StaticAssetConfig implements WebMvcConfigurer {
+
+    //The directories of 'static' whose stylesheets and scripts are processed by the pipeline
+    private static final String[] ASSET_DIRECTORIES = {"css/", "js/"};
+
+    @Autowired
+    private AssetPipeline assetPipeline;
+
+    //The assets are processed once, when the bean is created along with the other singletons of the application context
+    //The method is static so that the pipeline does not depend on this configuration, which itself depends on the pipeline
+    @Bean
+    public static AssetPipeline assetPipeline(ResourceLoader resourceLoader) throws IOException {
+        return new AssetPipeline(ResourcePatternUtils.getResourcePatternResolver(resourceLoader), ASSET_DIRECTORIES);
+    }
+
+    //The assets carry their own 'Cache-Control' header, the other files of the directories are revalidated on every use
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        for (String directory : ASSET_DIRECTORIES) {
+            registry.addResourceHandler("/" + directory + "**")
+                    .addResourceLocations("classpath:/static/" + directory)
+                    .setCacheControl(CacheControl.noCache().cachePublic())
+                    .resourceChain(false)
+                    .addResolver(new AssetResourceResolver(assetPipeline, directory))
+                    .addResolver(new PathResourceResolver());
+        }
+    }
+
+    @Bean
+    public AssetUrlEncodingFilter assetUrlEncodingFilter() {
+        return new AssetUrlEncodingFilter(assetPipeline);
+    }
+}
@@ -0,0 +1,91 @@
+package ImageHoster.config;
+
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opt-in mode handling every request on its own virtual thread instead of a thread of the Tomcat pool, enabled with 'imagehoster.threads.virtual=true'
+ * A virtual thread blocked on the network, e.g. reading the body sent by a slow client or waiting for the database, gives its carrier thread back, hence the number of requests in progress
+ * is no longer capped by 'server.tomcat.max-threads' but by 'server.tomcat.max-connections', and a waiting request only costs the few kilobytes of its stack
+ * The controllers, the services and the repositories run on the virtual thread of the request, the background pools (renditions, uploads, blob reaper) keep their platform threads
+ * Tomcat and the JDBC driver block inside synchronized blocks: Tomcat holds the monitor of the socket for the whole request, and the driver holds the monitor of the connection until the database answers
+ * Before Java 24 a virtual thread blocked inside a synchronized block stays pinned to its carrier thread, and a few slow clients are then enough to pin all the carriers and stall every request
+ * Hence the mode is only enabled on Java 24 and later (JEP 491), on an older runtime it logs a warning and the requests keep running on the Tomcat pool
+ * The DatabaseAccessGate lets at most 'imagehoster.threads.db-permits' threads hold a connection, the others wait in line for a permit instead of crowding the connection pool
+ * Spring 5.0 needs '--add-opens java.base/java.lang=ALL-UNNAMED' on these runtimes. The places where a virtual thread is still pinned are recorded as the jdk.VirtualThreadPinned JFR event
+ * ThreadModeBenchmark (in the test sources) compares the two modes under many slow clients
+ * The mode is experimental and unproven: on Java 21 (gate forced open) it was slower than the Tomcat pool, p99 of 18.5 s against 15.9 s under 1000 slow clients, and it has not been measured on Java 24+ yet
+ * Keep it disabled in production until ThreadModeBenchmark shows a gain on the target runtime
+ * Running on Java 11 and later needs the dependencies of the 'virtual-threads' Maven profile (mvn -Pvirtual-threads package), the default build does not ship them
+ */
+@Configuration
+@ConditionalOnProperty("imagehoster.threads.virtual")
+public class VirtualThreadConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    //The first version in which a virtual thread blocked in a synchronized block releases its carrier thread
+    private static final int UNPINNED_MONITORS_VERSION = 24;
+
+    //The number of permits defaults to the maximum size of the connection pool, and a request waits for a permit as long as it would wait for a connection
+    @Bean
+    public DatabaseAccessGate databaseAccessGate(@Value("${imagehoster.threads.db-permits:${spring.datasource.hikari.maximum-pool-size:10}}") int permits,
+                                                 @Value("${spring.datasource.hikari.connection-timeout:30000}") long timeoutMillis) {
+        return new DatabaseAccessGate(permits, timeoutMillis);
+    }
+
+    //The protocol handler of the connector runs the requests with the executor below instead of creating its own pool of threads
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadCustomizer(DatabaseAccessGate databaseAccessGate) {
+        return factory -> {
+            ExecutorService executor = javaVersion() >= UNPINNED_MONITORS_VERSION ? virtualThreadExecutor("http-virtual-") : null;
+            if (executor == null) {
+                log.warn("Virtual threads are only used from Java {} on, the requests run on the Tomcat thread pool of Java {}",
+                        UNPINNED_MONITORS_VERSION, System.getProperty("java.version"));
+                return;
+            }
+            factory.addConnectorCustomizers(connector -> {
+                if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+                    ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+                }
+            });
+            log.info("Requests run on virtual threads, at most {} threads holding a database connection", databaseAccessGate.getPermits());
+        };
+    }
+
+    //The feature version of the runtime, e.g. 8 for '1.8' and 21 for '21'
+    static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+
+    /**
+     * The method returns an executor starting a new virtual thread for every task, the threads are named with the received prefix and a counter
+     * The executor is created by reflection, as the application is compiled for Java 8: Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory())
+     *
+     * @param prefix - The prefix of the names of the threads
+     * @return - The executor, null if the runtime has no virtual threads
+     */
+    static ExecutorService virtualThreadExecutor(String prefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ContentVersion;
+import ImageHoster.model.User;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpSession;
+
+/**
+ * Answers the conditional requests of the html pages with '304 Not Modified' before the content of the page is loaded from the database
+ * The pages carry a weak ETag made of the version of their content, as kept by the ContentVersionService, and of the id of the logged in user
+ * The id of the user is part of the ETag because the header, the links and the messages of a page differ from one user to another
+ */
+final class ConditionalPages {
+
+    //The pages differ from one user to another and may change at any time, hence browsers may cache them but must revalidate them on every request
+    static final String PAGE_CACHE_CONTROL = "private, no-cache";
+
+    private ConditionalPages() {
+    }
+
+    /**
+     * The method sets the 'Cache-Control', 'ETag' and 'Last-Modified' headers of the page and checks whether the browser already has the page
+     * The request handling method returns null without loading or rendering anything if the method returns true, the response is then '304 Not Modified'
+     *
+     * @param webRequest   - The current request and response
+     * @param version    - The version of the content of the page, along with the time of its last change
+     * @return - true if the browser has the current version of the page
+     */
+    static boolean checkNotModified(ServletWebRequest webRequest, ContentVersion version) {
+        HttpSession session = webRequest.getRequest().getSession(false);
+        User user = session != null ? (User) session.getAttribute("loggeduser") : null;
+        String etag = "W/\"" + version.getTag() + "-u" + (user != null ? user.getId() : 0) + "\"";
+
+        webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, PAGE_CACHE_CONTROL);
+        return webRequest.checkNotModified(etag, version.getLastModified());
+    }
+}
@@ -0,0 +1,95 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ContentVersion;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.service.FragmentCacheService;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.support.RequestContextUtils;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.WebContext;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Renders the listing of a page of images from the fragments of 'gallery.html', through the FragmentCacheService
+ * The page showing the listing (index.html, images.html) is still rendered on every request, as its header depends on the logged in user
+ * A cached listing is served without reading the images of the page from the database. Else the images are read, and the cards of the images not cached yet are rendered
+ * The listings and cards are served to every visitor, hence their links are rendered without the session id the servlet container adds to the URLs of a visitor whose session is not tracked with a cookie
+ */
+final class GalleryFragments {
+
+    private GalleryFragments() {
+    }
+
+    /**
+     * @param fragmentCache  - The cache of the rendered listings and cards
+     * @param templateEngine - The Thymeleaf engine rendering the fragments
+     * @param webRequest     - The current request and response
+     * @param feedVersion    - The version of the feed of all the images, to be read before the page
+     * @param view           - The name of the page showing the listing, 'index' or 'images'. The titles of the cards link to the pages of the images only on 'images'
+     * @param feedPath       - The path of the page, which the links to the newer and older pages point to
+     * @param before         - The cursor of the image the page starts after, absent for the newest images
+     * @param after          - The cursor of the image the page ends before
+     * @param size           - The number of images per page, absent for the default page size
+     * @param pageLoader     - Reads the page of images from the database, called only if the listing is not cached
+     * @return - The html of the listing
+     */
+    static String render(FragmentCacheService fragmentCache, ITemplateEngine templateEngine, ServletWebRequest webRequest, ContentVersion feedVersion, String view, String feedPath,
+                         String before, String after, Integer size, Supplier<ImagePage> pageLoader) {
+        //The key is taken before the page is read, so that a listing read before a change of the images is never served after it
+        String key = fragmentCache.galleryKey(feedVersion, view, before, after, size);
+        String gallery = fragmentCache.getGallery(key);
+        if (gallery != null) {
+            return gallery;
+        }
+
+        ImagePage page = pageLoader.get();
+        List<String> cards = new ArrayList<>();
+        if (page != null) {
+            for (ImageSummary image : page.getImages()) {
+                String cardKey = fragmentCache.cardKey(view, image);
+                String card = fragmentCache.getCard(cardKey);
+                if (card == null) {
+                    WebContext context = newContext(webRequest);
+                    context.setVariable("i", image);
+                    context.setVariable("linked", "images".equals(view));
+                    card = templateEngine.process("gallery", Collections.singleton("card"), context);
+                    fragmentCache.putCard(cardKey, card);
+                }
+                cards.add(card);
+            }
+        }
+
+        WebContext context = newContext(webRequest);
+        context.setVariable("page", page);
+        context.setVariable("cards", cards);
+        context.setVariable("feedPath", feedPath);
+        gallery = templateEngine.process("gallery", Collections.singleton("gallery"), context);
+        fragmentCache.putGallery(key, gallery);
+        return gallery;
+    }
+
+    //The links are built by Thymeleaf with HttpServletResponse.encodeURL(), which the response of the context leaves unchanged instead of appending ';jsessionid=...' to them
+    private static WebContext newContext(ServletWebRequest webRequest) {
+        HttpServletRequest request = webRequest.getRequest();
+        HttpServletResponse response = new HttpServletResponseWrapper(webRequest.getResponse()) {
+            @Override
+            public String encodeURL(String url) {
+                return url;
+            }
+
+            @Override
+            public String encodeRedirectURL(String url) {
+                return url;
+            }
+        };
+        return new WebContext(request, response, request.getServletContext(), RequestContextUtils.getLocale(request));
+    }
+}
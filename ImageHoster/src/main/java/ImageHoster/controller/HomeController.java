@@ -1,13 +1,16 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
+import ImageHoster.model.ContentVersion;
+import ImageHoster.service.ContentVersionService;
+import ImageHoster.service.FragmentCacheService;
 import ImageHoster.service.ImageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
-
-import java.util.List;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.thymeleaf.ITemplateEngine;
 
 /**
  * This is a controller class containing all the request handling methods to handle landing page operations in the ImageHoster application
@@ -27,17 +30,40 @@ public class HomeController {
     @Autowired
     private ImageService imageService;
 
+    //Versions of the feed of all the images, to answer conditional requests without loading the images
+    @Autowired
+    private ContentVersionService contentVersionService;
+
+    //The rendered listings of the pages of images, shared by all the visitors
+    @Autowired
+    private FragmentCacheService fragmentCacheService;
+
+    @Autowired
+    private ITemplateEngine templateEngine;
+
     /**
      * This request handling method is called when you run the application on the localhost
-     * The method adds a list of images in the Model type object with 'images' as the key and returns the 'index.html' file displaying all the images in the application
+     * The method adds the listing of one page of images in the Model type object with 'gallery' as the key and returns the 'index.html' file displaying the images of that page
+     * The listing is rendered from 'gallery.html' and cached by the FragmentCacheService, it holds the links to the previous and next pages
+     * If the browser already has the page and no image has been uploaded, edited or deleted since, the method answers '304 Not Modified' without loading the images
      *
-     * @param model - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
-     * @return - This method returns the 'index.html' file displaying all the images in the application
+     * @param before - The cursor of the image the page starts after, absent for the newest images
+     * @param after  - The cursor of the image the page ends before
+     * @param size   - The number of images per page, absent for the default page size
+     * @param model  - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
+     * @param webRequest - The current request and response, to check whether the browser has the current version of the page
+     * @return - This method returns the 'index.html' file displaying one page of the images in the application, or null if the page has not changed
      */
     @RequestMapping("/")
-    public String getAllImages(Model model) {
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+    public String getAllImages(@RequestParam(name = "before", required = false) String before, @RequestParam(name = "after", required = false) String after,
+                               @RequestParam(name = "size", required = false) Integer size, Model model, ServletWebRequest webRequest) {
+        ContentVersion feedVersion = contentVersionService.getFeedVersion();
+        if (ConditionalPages.checkNotModified(webRequest, feedVersion)) {
+            return null;
+        }
+        String gallery = GalleryFragments.render(fragmentCacheService, templateEngine, webRequest, feedVersion, "index", "/", before, after, size,
+                () -> imageService.getImagePage(before, after, size));
+        model.addAttribute("gallery", gallery);
         return "index";
     }
 }
\ No newline at end of file
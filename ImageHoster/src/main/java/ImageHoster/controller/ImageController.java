@@ -1,22 +1,41 @@
 package ImageHoster.controller;
 
+import ImageHoster.model.ContentVersion;
 import ImageHoster.model.Image;
 import ImageHoster.model.Tag;
 import ImageHoster.model.User;
+import ImageHoster.service.ContentVersionService;
+import ImageHoster.service.FragmentCacheService;
 import ImageHoster.service.ImageService;
+import ImageHoster.service.ImageUploadPipeline;
 import ImageHoster.service.TagService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.thymeleaf.ITemplateEngine;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * This is a controller class containing all the request handling methods to handle image operations in the ImageHoster application
@@ -47,17 +66,44 @@ public class ImageController {
     @Autowired
     private TagService tagService;
 
+    //Runs the uploads on its own worker threads, so that the servlet threads keep serving the pages
+    @Autowired
+    private ImageUploadPipeline imageUploadPipeline;
+
+    //Versions of the pages of the images, to answer conditional requests without loading the images
+    @Autowired
+    private ContentVersionService contentVersionService;
+
+    //The rendered listings of the pages of images, shared by all the users
+    @Autowired
+    private FragmentCacheService fragmentCacheService;
+
+    @Autowired
+    private ITemplateEngine templateEngine;
+
     /**
-     * This request handling method displays all the images in the user home page after successful login
-     * The method adds a list of images in the Model type object with 'images' as the key and returns the 'images.html' file displaying all the images in the application in the user homepage after successful login
+     * This request handling method displays the images in the user home page after successful login
+     * The method adds the listing of one page of images in the Model type object with 'gallery' as the key and returns the 'images.html' file displaying the images of that page in the user homepage after successful login
+     * The listing is rendered from 'gallery.html' and cached by the FragmentCacheService, it holds the links to the previous and next pages
+     * If the browser already has the page and no image has been uploaded, edited or deleted since, the method answers '304 Not Modified' without loading the images
      *
-     * @param model - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
-     * @return - The method returns the 'images.html' file displaying all the images in the application in the user homepage after successful login
+     * @param before - The cursor of the image the page starts after, absent for the newest images
+     * @param after  - The cursor of the image the page ends before
+     * @param size   - The number of images per page, absent for the default page size
+     * @param model  - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
+     * @param webRequest - The current request and response, to check whether the browser has the current version of the page
+     * @return - The method returns the 'images.html' file displaying one page of the images in the application in the user homepage after successful login, or null if the page has not changed
      */
     @RequestMapping("images")
-    public String getUserImages(Model model) {
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+    public String getUserImages(@RequestParam(name = "before", required = false) String before, @RequestParam(name = "after", required = false) String after,
+                                @RequestParam(name = "size", required = false) Integer size, Model model, ServletWebRequest webRequest) {
+        ContentVersion feedVersion = contentVersionService.getFeedVersion();
+        if (ConditionalPages.checkNotModified(webRequest, feedVersion)) {
+            return null;
+        }
+        String gallery = GalleryFragments.render(fragmentCacheService, templateEngine, webRequest, feedVersion, "images", "/images", before, after, size,
+                () -> imageService.getImagePage(before, after, size));
+        model.addAttribute("gallery", gallery);
         return "images";
     }
 
@@ -66,20 +112,25 @@ public class ImageController {
      * This request handling method is called when the details of the specific image with corresponding id are to be displayed
      * The logic is to get the image from the database with corresponding image id. After getting the image from the database the details are shown
      * First receive the dynamic parameter 'imageId' in the incoming request URL in a string variable 'imageId' and also the Model type object
-     * Call the getImage() method in the business logic to fetch all the details of that image
+     * Call the getImageWithDetails() method in the business logic to fetch all the details of that image, including its tags and comments
      * Add the image in the Model type object with 'image' as the key
      * Add the image tags in the Model type object with 'tags' as the key
      * Add the image comments in the Model type object with 'comments' as the key
      * Return 'images/image.html' file
+     * If the browser already has the page and the image and its comments have not changed since, the method answers '304 Not Modified' without loading the image
      *
      * @param title   - This dynamic parameter contains the title of the image.
      * @param imageId - This dynamic parameter contains the id of the image for which the details are to be displayed
      * @param model   - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
-     * @return - This method returns the 'images/image.html' file showing the details of the particular image
+     * @param webRequest - The current request and response, to check whether the browser has the current version of the page
+     * @return - This method returns the 'images/image.html' file showing the details of the particular image, or null if the page has not changed
      */
     @RequestMapping("/images/{imageId}/{title}")
-    public String showImage(@PathVariable("title") String title, @PathVariable("imageId") Integer imageId, Model model) {
-        Image image = imageService.getImage(imageId);
+    public String showImage(@PathVariable("title") String title, @PathVariable("imageId") Integer imageId, Model model, ServletWebRequest webRequest) {
+        if (ConditionalPages.checkNotModified(webRequest, contentVersionService.getImageVersion(imageId))) {
+            return null;
+        }
+        Image image = imageService.getImageWithDetails(imageId);
         model.addAttribute("image", image);
         model.addAttribute("tags", image.getTags());
         model.addAttribute("comments", image.getComments());
@@ -87,6 +138,49 @@ public class ImageController {
     }
 
 
+    /**
+     * This request handling method serves the bytes of the image file with the corresponding image id from the BlobStore
+     * The html files refer to this URL in the 'src' attribute of the 'img' tags instead of embedding the image in the page
+     * The response carries the hash of the file as a strong ETag, hence a browser revalidating its cached copy receives '304 Not Modified' without any byte being sent
+     * The html files add the hash of the file as the 'v' request parameter. The URL then identifies one version of the file and the response is cached by the browser for a year
+     * Byte ranges requested with the 'Range' header are served with '206 Partial Content'
+     * With the 'w' request parameter the rendition of the file scaled down to that width is served. The original file is served as long as the rendition has not been generated
+     * The URL has one more segment than the page of an image, hence it never clashes with the page of an image whatever its title
+     * An unknown image id, or an image without file, is answered with '404 Not Found'
+     *
+     * @param imageId    - This dynamic parameter contains the id of the image whose file is to be served
+     * @param version    - The content hash of the file the page was rendered with
+     * @param width      - The width of the requested rendition, the original file is served if the parameter is absent
+     * @param request  - The current request
+     * @param response - The response the image file is written to
+     * @throws IOException
+     */
+    @RequestMapping(value = "/images/{imageId}/file/raw", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void getImageFile(@PathVariable("imageId") Integer imageId, @RequestParam(name = "v", required = false) String version, @RequestParam(name = "w", required = false) Integer width, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Image image = imageService.getImage(imageId);
+        Resource imageFile = image != null ? imageService.getImageFile(image) : null;
+        if (imageFile == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        boolean currentVersion = image.getContentHash().equals(version);
+        Resource rendition = width != null ? imageService.getImageRendition(image, width) : null;
+        if (rendition != null) {
+            String mimeType = MediaTypeFactory.getMediaType(rendition).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+            String cacheControl = currentVersion ? ImageFileWriter.IMMUTABLE_CACHE_CONTROL : ImageFileWriter.REVALIDATE_CACHE_CONTROL;
+            ImageFileWriter.write(new ServletWebRequest(request, response), rendition, image.getContentHash() + "-w" + width, mimeType, cacheControl);
+            return;
+        }
+
+        //The original file served in place of a missing rendition must not be cached for a year under the URL of the rendition
+        //A file stored before the type of the uploads was checked is served as plain bytes unless it is one of the accepted image types
+        String mimeType = ImageService.isSupportedMimeType(image.getMimeType()) ? image.getMimeType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        String cacheControl = currentVersion && width == null ? ImageFileWriter.IMMUTABLE_CACHE_CONTROL : ImageFileWriter.REVALIDATE_CACHE_CONTROL;
+        ImageFileWriter.write(new ServletWebRequest(request, response), imageFile, image.getContentHash(), mimeType, cacheControl);
+    }
+
+
     /**
      * This controller method is called when the request pattern is of type 'images/upload'
      * The method returns 'images/upload.html' file
@@ -103,31 +197,60 @@ public class ImageController {
      * This request handling method is called when the request pattern is of type 'images/upload' and also the incoming request is of POST type
      * The method receives all the details of the image to be stored in the database, and now the image will be sent to the business logic to be persisted in the database
      * After you get the imageFile, set the user of the image by getting the logged in user from the Http Session
-     * Convert the image to Base64 format and store it as a string in the 'imageFile' attribute
-     * Convert the string of all the tags separated by a comma to a list of tags using the findOrCreateTags() method and set the tags attribute of an image as a list of these tags
-     * findOrCreateTags() method also persists the non existing tags in the database
-     * Set the date on which the image is posted
-     * After storing the image, this method directs to the logged in user homepage displaying all the images
+     * The upload is then handed to the ImageUploadPipeline, which stores the image file in the BlobStore, resolves the tags and persists the image on its own worker threads
+     * The method returns right away and the servlet thread is released, the response is sent once the image is committed
+     * After storing the image, the client is redirected to the logged in user homepage displaying all the images
+     * If a stage of the pipeline fails, e.g. with a BlobTooLargeException, the failure is handled as if this method had thrown it
+     * The request waits for the image for the timeout of the pipeline, long enough for the upload to wait behind a full queue
+     * If it times out before the image is being inserted, the upload is cancelled and the request is answered with '503 Service Unavailable', nothing being stored
+     * If the image is already being inserted, the request waits for the insert to complete instead, so that the answer always matches the outcome of the upload
      *
      * @param file     - This request parameter contains the image file
      * @param tags     - This request parameter contains the string of all the tags separated by a comma
      * @param newImage - This is an object of type Image containing the image details
      * @param session  - Http session containing the details of the logged in user
-     * @return - This method redirects to the request handling method with request mapping of type '/images' displaying all the images in the database
-     * @throws IOException
+     * @return - The result of the upload, which redirects to the request handling method with request mapping of type '/images' displaying all the images in the database
      */
     @RequestMapping(value = "/images/upload", method = RequestMethod.POST)
-    public String createImage(@RequestParam("file") MultipartFile file, @RequestParam("tags") String tags, Image newImage, HttpSession session) throws IOException {
+    public DeferredResult<String> createImage(@RequestParam("file") MultipartFile file, @RequestParam("tags") String tags, Image newImage, HttpSession session) {
 
         User user = (User) session.getAttribute("loggeduser");
         newImage.setUser(user);
-        String uploadedImageData = convertUploadedFileToBase64(file);
-        newImage.setImageFile(uploadedImageData);
-        List<Tag> imageTags = findOrCreateTags(tags);
-        newImage.setTags(imageTags);
-        newImage.setDate(new Date());
-        imageService.uploadImage(newImage);
-        return "redirect:/images";
+        DeferredResult<String> result = new DeferredResult<>(imageUploadPipeline.getTimeoutMillis());
+        CompletableFuture<Image> upload = imageUploadPipeline.upload(newImage, file, TagService.splitTagNames(tags));
+        upload.whenComplete((image, error) -> {
+            //An upload is only cancelled when the request times out, the timeout callback answers the request itself
+            if (!(error instanceof CancellationException)) {
+                setUploadResult(result, error);
+            }
+        });
+        result.onTimeout(() -> {
+            if (upload.cancel(false)) {
+                result.setErrorResult(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The upload has timed out before the image was stored, please try again"));
+                return;
+            }
+            //The insert of the image has started and takes a single transaction, the request waits for its outcome
+            Throwable error = null;
+            try {
+                upload.get();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = e;
+            }
+            setUploadResult(result, error);
+        });
+        return result;
+    }
+
+    //The upload request redirects to the images of the user once the image is committed, the failure of a stage is the result of the request
+    private static void setUploadResult(DeferredResult<String> result, Throwable error) {
+        if (error != null) {
+            result.setErrorResult(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+        } else {
+            result.setResult("redirect:/images");
+        }
     }
 
 
@@ -151,7 +274,7 @@ public class ImageController {
     public String editImage(@RequestParam("imageId") Integer imageId, Model model, HttpSession session) {
 
         User user = (User) (session.getAttribute("loggeduser"));
-        Image image = imageService.getImage(imageId);
+        Image image = imageService.getImageWithDetails(imageId);
         if ((user.getId()).equals(image.getUser().getId())) {
             String tags = convertTagsToString(image.getTags());
             model.addAttribute("image", image);
@@ -173,41 +296,51 @@ public class ImageController {
      * The method receives the imageFile, imageId, tags, updated image, along with the Http Session
      * The method first converts the string of all tags separated by a comma to a list of all the tags using findOrCreatetags() method
      * Set the tags attribute of the image as the list of tags returned by the findOrCreateTags() method
-     * The method adds the new imageFile to the updated image if user updates the imageFile and adds the previous imageFile to the new updated image if user does not choose to update the imageFile
+     * The method stores the new image file if user updates the image file, else the file of the image is left untouched
      * Set an id of the new updated image
-     * Set the user using Http Session
      * Set the date on which the image is posted
-     * Call the updateImage() method in the business logic to update the image
+     * Call the updateImage() method in the business logic to update only the edited attributes of the image
      * Direct to the same page showing the details of that particular updated image
+     * If the image has been edited by someone else since the edit form was shown, the edit form is shown again with the current details of the image and an error message
+     * If the image has been deleted meanwhile, the method answers '404 Not Found'. An edit without the version it is based on is answered with '400 Bad Request'
      *
      * @param file         - This request parameter contains the image file
      * @param imageId      - This request parameter contains the id of the edited image
+     * @param version      - This request parameter contains the version of the image the edit is based on
      * @param tags         - This request parameter contains the string of all tags separated by a comma
-     * @param updatedImage - An object of type Image containing the updated attributes of the image. Note that the image attributes which are not updated are become null now
-     * @param session      - Http session containing the details of the logged in user
+     * @param updatedImage - An object of type Image containing the updated attributes of the image and the version of the image the edit is based on
+     * @param model        - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
      * @return - Returns the same page showing the details of that particular updated image
      * @throws IOException
      */
     @RequestMapping(value = "/editImage", method = RequestMethod.PUT)
-    public String editImageSubmit(@RequestParam("file") MultipartFile file, @RequestParam("imageId") Integer imageId, @RequestParam("tags") String tags, Image updatedImage, HttpSession session) throws IOException {
+    public String editImageSubmit(@RequestParam("file") MultipartFile file, @RequestParam("imageId") Integer imageId, @RequestParam("version") Integer version, @RequestParam("tags") String tags, Image updatedImage, Model model) throws IOException {
 
-        Image image = imageService.getImage(imageId);
         List<Tag> imageTags = findOrCreateTags(tags);
-        String updatedImageData = convertUploadedFileToBase64(file);
 
-        if (updatedImageData.isEmpty())
-            updatedImage.setImageFile(image.getImageFile());
-        else {
-            updatedImage.setImageFile(updatedImageData);
+        boolean fileUpdated = !file.isEmpty();
+        if (fileUpdated) {
+            imageService.storeImageFile(updatedImage, file);
         }
 
         updatedImage.setId(imageId);
-        User user = (User) session.getAttribute("loggeduser");
-        updatedImage.setUser(user);
+        updatedImage.setVersion(version);
         updatedImage.setTags(imageTags);
         updatedImage.setDate(new Date());
 
-        imageService.updateImage(updatedImage);
+        try {
+            imageService.updateImage(updatedImage, fileUpdated);
+        } catch (OptimisticLockingFailureException e) {
+            //The image may have been deleted while it was being edited
+            if (imageService.getImage(imageId) == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The image has been deleted");
+            }
+            Image image = imageService.getImageWithDetails(imageId);
+            model.addAttribute("editError", "The image has been changed by someone else while you were editing it. Please apply your changes again");
+            model.addAttribute("image", image);
+            model.addAttribute("tags", convertTagsToString(image.getTags()));
+            return "images/edit";
+        }
         return "redirect:/images/" + updatedImage.getId() + "/" + updatedImage.getTitle();
     }
 
@@ -237,6 +370,8 @@ public class ImageController {
             return "redirect:/images";
         } else {
             String error = "Only the owner of the image can delete the image";
+            //The page of the image is shown again, hence its tags and comments are fetched along with it
+            image = imageService.getImageWithDetails(imageId);
             model.addAttribute("deleteError", error);
             model.addAttribute("image", image);
             model.addAttribute("tags", image.getTags());
@@ -247,38 +382,15 @@ public class ImageController {
     }
 
 
-    /**
-     * This method converts the image to Base64 format
-     *
-     * @param file - The image file
-     * @return - This method returns the Base64 encoded image as a string
-     * @throws IOException
-     */
-    private String convertUploadedFileToBase64(MultipartFile file) throws IOException {
-        return Base64.getEncoder().encodeToString(file.getBytes());
-    }
-
     /**
      * The method returns the list of all the tags and persists the non existing tags in the database
+     * All the tags are resolved with a single call to the TagService
      *
      * @param tagNames - A string containing all the tags of the image separated by a comma
      * @return - The list of all the tags
      */
     private List<Tag> findOrCreateTags(String tagNames) {
-        StringTokenizer st = new StringTokenizer(tagNames, ",");
-        List<Tag> tags = new ArrayList<Tag>();
-
-        while (st.hasMoreTokens()) {
-            String tagName = st.nextToken().trim();
-            Tag tag = tagService.getTagByName(tagName);
-
-            if (tag == null) {
-                Tag newTag = new Tag(tagName);
-                tag = tagService.createTag(newTag);
-            }
-            tags.add(tag);
-        }
-        return tags;
+        return tagService.findOrCreateTags(TagService.splitTagNames(tagNames));
     }
 
     /**
@@ -291,6 +403,9 @@ public class ImageController {
      */
     private String convertTagsToString(List<Tag> tags) {
         StringBuilder tagString = new StringBuilder();
+        if (tags.isEmpty()) {
+            return tagString.toString();
+        }
 
         for (int i = 0; i <= tags.size() - 2; i++) {
             tagString.append(tags.get(i).getName()).append(",");
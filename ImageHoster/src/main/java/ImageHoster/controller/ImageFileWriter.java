@@ -0,0 +1,128 @@
+package ImageHoster.controller;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes an image file from the BlobStore to the HTTP response
+ * The class answers conditional requests with '304 Not Modified' using a strong ETag, the hash of the file content
+ * A single byte range requested with the 'Range' header is answered with '206 Partial Content'
+ * The bytes are transferred without copying them through the heap: with Tomcat sendfile when the connector supports it, else with FileChannel.transferTo()
+ * Every response carries 'X-Content-Type-Options: nosniff', so that browsers never run an uploaded file as a page or a script of the application whatever its content
+ */
+final class ImageFileWriter {
+
+    //Request attributes understood by the Tomcat NIO connector to send a file with the sendfile system call once the request handling method returns
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    //Header telling the browsers to keep to the 'Content-Type' of the response instead of guessing the type from the content
+    private static final String CONTENT_TYPE_OPTIONS = "X-Content-Type-Options";
+
+    //A file referenced with its content hash in the URL never changes, hence browsers can cache it for a year without revalidating
+    static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    //A file referenced only with the image id changes when the owner uploads a new file, hence browsers must revalidate it with the ETag
+    static final String REVALIDATE_CACHE_CONTROL = "public, no-cache";
+
+    private ImageFileWriter() {
+    }
+
+    /**
+     * @param webRequest   - The current request and response
+     * @param file         - The image file to be sent
+     * @param contentHash  - SHA-256 hash of the file, used as the strong ETag
+     * @param mimeType     - MIME type of the file
+     * @param cacheControl - Value of the 'Cache-Control' header of the response
+     * @throws IOException
+     */
+    static void write(ServletWebRequest webRequest, Resource file, String contentHash, String mimeType, String cacheControl) throws IOException {
+        HttpServletRequest request = webRequest.getRequest();
+        HttpServletResponse response = webRequest.getResponse();
+        String etag = "\"" + contentHash + "\"";
+
+        response.setHeader(CONTENT_TYPE_OPTIONS, "nosniff");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (webRequest.checkNotModified(etag)) {
+            return;
+        }
+
+        long length = file.contentLength();
+        long start = 0;
+        long end = length;
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        //A range is honoured only if the client still has the current version of the file, else the whole file is sent
+        if (rangeHeader != null && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = null;
+            }
+            //Multiple ranges would require a multipart response, the whole file is sent instead which is allowed by RFC 7233
+            if (ranges != null && ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                long rangeStart = range.getRangeStart(length);
+                long rangeEnd = range.getRangeEnd(length);
+                if (length == 0 || rangeStart >= length || rangeStart > rangeEnd) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    return;
+                }
+                start = rangeStart;
+                end = rangeEnd + 1;
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + rangeEnd + "/" + length);
+            }
+        }
+
+        response.setContentType(mimeType);
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(end - start));
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        File source = file.isFile() ? file.getFile() : null;
+        if (source == null) {
+            try (InputStream in = file.getInputStream()) {
+                StreamUtils.copyRange(in, response.getOutputStream(), start, end - 1);
+            }
+        } else if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, source.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end);
+        } else {
+            try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                long position = start;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, out);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                }
+            }
+        }
+    }
+}
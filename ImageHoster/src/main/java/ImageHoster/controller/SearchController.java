@@ -0,0 +1,37 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.SearchPage;
+import ImageHoster.service.SearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * This is a controller class containing the request handling method to search the images in the ImageHoster application
+ */
+@Controller
+public class SearchController {
+
+    @Autowired
+    private SearchService searchService;
+
+    /**
+     * This request handling method is called when the request pattern is of type '/search'
+     * The method calls the search() method in the business logic to find the images whose title, description or tags match every word of the query
+     * The method adds the requested page of results in the Model type object with 'page' as the key and returns the 'search.html' file displaying the results
+     *
+     * @param query - The words to be searched, absent to show the empty search form
+     * @param page  - The number of the page of results, starting at 1
+     * @param model - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
+     * @return - This method returns the 'search.html' file displaying the results of the search
+     */
+    @RequestMapping(value = "/search", method = RequestMethod.GET)
+    public String search(@RequestParam(name = "q", required = false) String query, @RequestParam(name = "page", defaultValue = "1") int page, Model model) {
+        SearchPage results = searchService.search(query, page);
+        model.addAttribute("page", results);
+        return "search";
+    }
+}
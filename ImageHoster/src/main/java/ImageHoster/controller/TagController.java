@@ -0,0 +1,90 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.TagPage;
+import ImageHoster.model.TagSuggestion;
+import ImageHoster.service.TagIndexService;
+import ImageHoster.service.TagService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is a controller class containing the request handling methods to browse the images by tag and to suggest tags in the ImageHoster application
+ */
+@Controller
+public class TagController {
+
+    //Upper bound of the number of suggestions requested with the 'limit' request parameter
+    private static final int MAX_SUGGESTIONS = 50;
+
+    @Autowired
+    private TagIndexService tagIndexService;
+
+    @Autowired
+    private TagService tagService;
+
+    /**
+     * This request handling method is called when the request pattern is of type '/tags/suggest', as the tags of an image are typed in the upload and edit forms
+     * The method returns the most used tags starting with the received prefix as JSON, most used first, along with their number of images
+     * The suggestions are served from memory without querying the database, and may be cached by the browser for a short time
+     *
+     * @param prefix - The first characters of the tag being typed
+     * @param limit  - The maximum number of suggested tags
+     * @return - The suggested tags as a JSON array of objects with the 'name' and 'count' attributes
+     */
+    @RequestMapping(value = "/tags/suggest", method = RequestMethod.GET)
+    @ResponseBody
+    public ResponseEntity<List<TagSuggestion>> suggestTags(@RequestParam(name = "prefix", defaultValue = "") String prefix,
+                                                           @RequestParam(name = "limit", defaultValue = "10") int limit) {
+        List<TagSuggestion> suggestions = tagService.suggestTags(prefix, Math.max(1, Math.min(limit, MAX_SUGGESTIONS)));
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(30, TimeUnit.SECONDS))
+                .body(suggestions);
+    }
+
+    /**
+     * This request handling method is called when the request pattern is of type '/tags/{tagName}'
+     * The method adds one page of the images having the tag, newest first, in the Model type object with 'page' as the key and returns the 'tags.html' file displaying them
+     *
+     * @param tagName - The name of the tag
+     * @param page    - The number of the page, starting at 1
+     * @param model   - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
+     * @return - This method returns the 'tags.html' file displaying one page of the images having the tag
+     */
+    @RequestMapping(value = "/tags/{tagName}", method = RequestMethod.GET)
+    public String getImagesWithTag(@PathVariable("tagName") String tagName, @RequestParam(name = "page", defaultValue = "1") int page, Model model) {
+        TagPage images = tagIndexService.getImages(Collections.singletonList(tagName), Collections.emptyList(), page);
+        model.addAttribute("page", images);
+        return "tags";
+    }
+
+    /**
+     * This request handling method is called when the request pattern is of type '/tags'
+     * The method adds one page of the images having all the tags of the 'all' parameter and at least one of the tags of the 'any' parameter, newest first, in the Model type object with 'page' as the key
+     * Returns the 'tags.html' file displaying them
+     *
+     * @param all   - The names of the tags every image must have, separated by a comma
+     * @param any   - The names of the tags every image must have at least one of, separated by a comma
+     * @param page  - The number of the page, starting at 1
+     * @param model - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
+     * @return - This method returns the 'tags.html' file displaying one page of the images having the tags
+     */
+    @RequestMapping(value = "/tags", method = RequestMethod.GET)
+    public String getImagesWithTags(@RequestParam(name = "all", defaultValue = "") String all, @RequestParam(name = "any", defaultValue = "") String any,
+                                    @RequestParam(name = "page", defaultValue = "1") int page, Model model) {
+        TagPage images = tagIndexService.getImages(TagService.splitTagNames(all), TagService.splitTagNames(any), page);
+        model.addAttribute("page", images);
+        return "tags";
+    }
+}
@@ -1,8 +1,9 @@
 package ImageHoster.controller;
 
-import ImageHoster.model.Image;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
+import ImageHoster.service.ContentVersionService;
+import ImageHoster.service.FragmentCacheService;
 import ImageHoster.service.ImageService;
 import ImageHoster.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,9 +11,10 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.thymeleaf.ITemplateEngine;
 
 import javax.servlet.http.HttpSession;
-import java.util.List;
 
 /**
  * This is a controller class containing all the request handling methods to handle user operations in the ImageHoster application
@@ -43,6 +45,17 @@ public class UserController {
     @Autowired
     private ImageService imageService;
 
+    //The rendered listings of the pages of images, shared by all the visitors
+    @Autowired
+    private FragmentCacheService fragmentCacheService;
+
+    //The listing shown after the logout is cached under the version of the feed of all the images
+    @Autowired
+    private ContentVersionService contentVersionService;
+
+    @Autowired
+    private ITemplateEngine templateEngine;
+
     //
 
     /**
@@ -146,19 +159,21 @@ public class UserController {
      * This request handling method is called when the request pattern is of type 'users/logout' and also the incoming request is of POST type
      * The method receives the Http Session and the Model type object
      * session is invalidated
-     * All the images are fetched from the database and added to the model with 'images' as the key
-     * 'index.html' file is returned showing the landing page of the application and displaying all the images in the application
+     * The listing of the first page of images is added to the model with 'gallery' as the key, the same listing as the one shown by the HomeController and cached by the FragmentCacheService
+     * 'index.html' file is returned showing the landing page of the application and displaying the newest images in the application
      *
-     * @param model   - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
-     * @param session - Http session containing the details of the logged in user
+     * @param model      - model is an object of Type Model, a class provided by the Spring. You can add the attributes in this Model type object and then access these attributes in the HTML files
+     * @param session    - Http session containing the details of the logged in user
+     * @param webRequest - The current request and response, the links of the listing are rendered for
      * @return - This method returns the 'index.html' file showing the landing page of the application and displaying all the images in the application
      */
     @RequestMapping(value = "users/logout", method = RequestMethod.POST)
-    public String logout(Model model, HttpSession session) {
+    public String logout(Model model, HttpSession session, ServletWebRequest webRequest) {
         session.invalidate();
 
-        List<Image> images = imageService.getAllImages();
-        model.addAttribute("images", images);
+        String gallery = GalleryFragments.render(fragmentCacheService, templateEngine, webRequest, contentVersionService.getFeedVersion(), "index", "/", null, null, null,
+                () -> imageService.getImagePage(null, null, null));
+        model.addAttribute("gallery", gallery);
         return "index";
     }
 }
@@ -1,5 +1,8 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.io.Serializable;
 import java.time.LocalDate;
@@ -13,7 +16,9 @@ public class Comment implements Serializable {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    //The ids are taken from the 'comment_id_seq' sequence in blocks, see PooledSequenceGenerator
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "comment_id_seq")
+    @GenericGenerator(name = "comment_id_seq", strategy = "ImageHoster.config.PooledSequenceGenerator", parameters = @Parameter(name = "sequence_name", value = "comment_id_seq"))
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
@@ -0,0 +1,26 @@
+package ImageHoster.model;
+
+/**
+ * The version of the content of a page, as kept by the ContentVersionService, along with the time of its last change
+ */
+public class ContentVersion {
+
+    //Identifies the version of the content, the ETag of the page is made of it
+    private final String tag;
+
+    //The time of the last change of the content in milliseconds, -1 if unknown
+    private final long lastModified;
+
+    public ContentVersion(String tag, long lastModified) {
+        this.tag = tag;
+        this.lastModified = lastModified;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
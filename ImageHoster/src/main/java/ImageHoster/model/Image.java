@@ -1,5 +1,10 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.Date;
@@ -11,11 +16,15 @@ import java.util.List;
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'images'. Hence the table named 'images' will be created in the database with all the columns mapped to all the attributes in 'Image' class
 @Table(name = "images")
+//The UPDATE statements only set the columns which have changed, editing the title of an image does not rewrite the rest of the row
+@DynamicUpdate
 public class Image {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    //The ids are taken from the 'images_id_seq' sequence in blocks, see PooledSequenceGenerator
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "images_id_seq")
+    @GenericGenerator(name = "images_id_seq", strategy = "ImageHoster.config.PooledSequenceGenerator", parameters = @Parameter(name = "sequence_name", value = "images_id_seq"))
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
@@ -24,12 +33,19 @@ public class Image {
     @Column(name = "title")
     private String title;
 
-    // Text is a Postgres specific column type that allows you to save
-    // text based data that will be longer than 256 characters
-    // this is a base64 encoded version of the image
-    @Column(columnDefinition = "TEXT")
-    private String imageFile;
+    //The bytes of the image are not stored in the 'images' table but in the BlobStore
+    //This column holds the hex encoded SHA-256 hash of the image file which is the key of the file in the BlobStore
+    //Identical uploads have the same hash, hence the file is stored only once
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    //Size of the image file in bytes
+    @Column(name = "size")
+    private Long size;
 
+    //MIME type of the image file such as 'image/jpeg' or 'image/png'
+    @Column(name = "mime_type")
+    private String mimeType;
 
     @Column(name = "description")
     private String description;
@@ -37,6 +53,11 @@ public class Image {
     @Column(name = "date")
     private Date date;
 
+    //Incremented by Hibernate on every update of the image, an UPDATE based on an older version fails with an OptimisticLockException
+    @Version
+    @Column(name = "version")
+    private Integer version;
+
     //The 'images' table is mapped to 'users' table with Many:One mapping
     //One image can have only one user (owner) but one user can have multiple images
     //FetchType is EAGER
@@ -49,29 +70,32 @@ public class Image {
     //One image can have multiple tags and there can be multiple images under one tag
     //FetchType is LAZY
     //A separate joint table will be created in the database containing two columns, both the columns referencing the primary keys of 'images' and 'tags' table respec.
+    //When the tags of several images are loaded lazily, the tags of up to 50 images are fetched with a single query
     @ManyToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
     private List<Tag> tags = new ArrayList<>();
 
     //The 'images' table is mapped to 'comment' table with One:Many mapping
     //FetchType is LAZY
     //mappedBy = "image" indicates that the 'image' field in the 'comment' table reference the primary key of this table
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "image")
+    @BatchSize(size = 50)
     private List<Comment> comments = new ArrayList<>();
 
     public Image() {
     }
 
-    public Image(int id, String title, String imageFile, Date date) {
+    public Image(int id, String title, String contentHash, Date date) {
         this.id = id;
         this.title = title;
-        this.imageFile = imageFile;
+        this.contentHash = contentHash;
         this.date = date;
     }
 
-    public Image(int id, String title, String imageFile, String description, Date date) {
+    public Image(int id, String title, String contentHash, String description, Date date) {
         this.id = id;
         this.title = title;
-        this.imageFile = imageFile;
+        this.contentHash = contentHash;
         this.description = description;
         this.date = date;
     }
@@ -93,12 +117,28 @@ public class Image {
         this.title = title;
     }
 
-    public String getImageFile() {
-        return imageFile;
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Long getSize() {
+        return size;
     }
 
-    public void setImageFile(String imageFile) {
-        this.imageFile = imageFile;
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
     }
 
     public String getDescription() {
@@ -117,6 +157,14 @@ public class Image {
         this.date = date;
     }
 
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     public User getUser() {
         return user;
     }
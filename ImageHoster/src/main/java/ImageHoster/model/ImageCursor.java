@@ -0,0 +1,59 @@
+package ImageHoster.model;
+
+import java.util.Date;
+
+/**
+ * The position of an image in the gallery feed, which is ordered by the date on which the image is posted and then by the image id
+ * A page of the feed starts right after or right before a cursor, hence fetching a page never needs to skip the rows of all the preceding pages
+ * In the URLs the cursor is written as '<milliseconds of the date>_<image id>'
+ */
+public class ImageCursor {
+
+    private final Date date;
+
+    private final Integer id;
+
+    public ImageCursor(Date date, Integer id) {
+        this.date = date;
+        this.id = id;
+    }
+
+    //The method returns the cursor pointing at the received image
+    public static ImageCursor of(ImageSummary image) {
+        return new ImageCursor(image.getDate(), image.getId());
+    }
+
+    /**
+     * @param value - The cursor as written in the URL
+     * @return - The parsed cursor and null if the value is absent or malformed
+     */
+    public static ImageCursor parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        int separator = value.indexOf('_');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            long millis = Long.parseLong(value.substring(0, separator));
+            int id = Integer.parseInt(value.substring(separator + 1));
+            return new ImageCursor(new Date(millis), id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return date.getTime() + "_" + id;
+    }
+}
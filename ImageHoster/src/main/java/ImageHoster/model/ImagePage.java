@@ -0,0 +1,36 @@
+package ImageHoster.model;
+
+import java.util.List;
+
+/**
+ * One page of the gallery feed, newest images first
+ * The page holds the cursors of the neighbouring pages, a cursor is null if there is no page in that direction
+ */
+public class ImagePage {
+
+    private final List<ImageSummary> images;
+
+    //Cursor of the page with the newer images, passed as the 'after' request parameter
+    private final String previousCursor;
+
+    //Cursor of the page with the older images, passed as the 'before' request parameter
+    private final String nextCursor;
+
+    public ImagePage(List<ImageSummary> images, String previousCursor, String nextCursor) {
+        this.images = images;
+        this.previousCursor = previousCursor;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ImageSummary> getImages() {
+        return images;
+    }
+
+    public String getPreviousCursor() {
+        return previousCursor;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
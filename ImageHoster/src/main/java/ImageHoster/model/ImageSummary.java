@@ -0,0 +1,50 @@
+package ImageHoster.model;
+
+import java.util.Date;
+
+/**
+ * A read only view of an image holding only the attributes needed to list the image in a gallery page
+ * Listing queries select these attributes with a JPQL constructor expression instead of loading Image entities, hence they never load the image tags, comments or the full owner and profile of the image
+ */
+public class ImageSummary {
+
+    private final Integer id;
+
+    private final String title;
+
+    private final Date date;
+
+    //Username of the owner of the image
+    private final String ownerName;
+
+    //Key of the image file in the BlobStore, used to build the URL of the image file
+    private final String contentHash;
+
+    public ImageSummary(Integer id, String title, Date date, String ownerName, String contentHash) {
+        this.id = id;
+        this.title = title;
+        this.date = date;
+        this.ownerName = ownerName;
+        this.contentHash = contentHash;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+}
@@ -0,0 +1,53 @@
+package ImageHoster.model;
+
+import java.util.List;
+
+/**
+ * One page of the results of a search, best matching images first
+ * The page numbers start at 1
+ */
+public class SearchPage {
+
+    private final String query;
+
+    private final List<ImageSummary> images;
+
+    private final int page;
+
+    private final int pageSize;
+
+    //Number of images matching the query over all the pages
+    private final int totalHits;
+
+    public SearchPage(String query, List<ImageSummary> images, int page, int pageSize, int totalHits) {
+        this.query = query;
+        this.images = images;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.totalHits = totalHits;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public List<ImageSummary> getImages() {
+        return images;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public boolean isHasPrevious() {
+        return page > 1;
+    }
+
+    public boolean isHasNext() {
+        return (long) page * pageSize < totalHits;
+    }
+}
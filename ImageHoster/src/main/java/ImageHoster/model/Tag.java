@@ -1,5 +1,8 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.List;
 
@@ -15,9 +18,12 @@ public class Tag {
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    //The ids are taken from the 'tags_id_seq' sequence in blocks, see PooledSequenceGenerator
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tags_id_seq")
+    @GenericGenerator(name = "tags_id_seq", strategy = "ImageHoster.config.PooledSequenceGenerator", parameters = @Parameter(name = "sequence_name", value = "tags_id_seq"))
     private Integer id;
 
+    //The database has a unique index on lower(name), created by the V2 migration, hence a name is stored only once whatever its case
     @Column
     private String name;
 
@@ -0,0 +1,62 @@
+package ImageHoster.model;
+
+import java.util.List;
+
+/**
+ * One page of the images having the requested tags, newest images first
+ * The page numbers start at 1
+ */
+public class TagPage {
+
+    //Names of the tags every image of the page has
+    private final List<String> allTags;
+
+    //Names of the tags every image of the page has at least one of
+    private final List<String> anyTags;
+
+    private final List<ImageSummary> images;
+
+    private final int page;
+
+    private final int pageSize;
+
+    //Number of images having the requested tags over all the pages
+    private final int totalHits;
+
+    public TagPage(List<String> allTags, List<String> anyTags, List<ImageSummary> images, int page, int pageSize, int totalHits) {
+        this.allTags = allTags;
+        this.anyTags = anyTags;
+        this.images = images;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.totalHits = totalHits;
+    }
+
+    public List<String> getAllTags() {
+        return allTags;
+    }
+
+    public List<String> getAnyTags() {
+        return anyTags;
+    }
+
+    public List<ImageSummary> getImages() {
+        return images;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public boolean isHasPrevious() {
+        return page > 1;
+    }
+
+    public boolean isHasNext() {
+        return (long) page * pageSize < totalHits;
+    }
+}
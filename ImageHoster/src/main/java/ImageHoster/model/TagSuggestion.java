@@ -0,0 +1,24 @@
+package ImageHoster.model;
+
+/**
+ * A tag name suggested while the tags of an image are typed, along with the number of images having the tag
+ */
+public class TagSuggestion {
+
+    private final String name;
+
+    private final int count;
+
+    public TagSuggestion(String name, int count) {
+        this.name = name;
+        this.count = count;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
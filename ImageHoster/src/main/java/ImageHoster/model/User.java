@@ -1,5 +1,9 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,11 +13,15 @@ import java.util.List;
 //@Table annotation provides more options to customize the mapping.
 //Here the name of the table to be created in the database is explicitly mentioned as 'users'. Hence the table named 'users' will be created in the database with all the columns mapped to all the attributes in 'User' class
 @Table(name = "users")
+//The lazily loaded authors of several comments are fetched with a single query for up to 50 authors instead of a query per author
+@BatchSize(size = 50)
 public class User {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    //The ids are taken from the 'users_id_seq' sequence in blocks, see PooledSequenceGenerator
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_id_seq")
+    @GenericGenerator(name = "users_id_seq", strategy = "ImageHoster.config.PooledSequenceGenerator", parameters = @Parameter(name = "sequence_name", value = "users_id_seq"))
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
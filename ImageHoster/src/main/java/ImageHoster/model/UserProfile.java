@@ -1,5 +1,8 @@
 package ImageHoster.model;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
 //@Entity annotation specifies that the corresponding class is a JPA entity
@@ -12,7 +15,9 @@ public class UserProfile {
 
     //@Id annotation specifies that the corresponding attribute is a primary key
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    //The ids are taken from the 'user_profile_id_seq' sequence in blocks, see PooledSequenceGenerator
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_profile_id_seq")
+    @GenericGenerator(name = "user_profile_id_seq", strategy = "ImageHoster.config.PooledSequenceGenerator", parameters = @Parameter(name = "sequence_name", value = "user_profile_id_seq"))
     //@Column annotation specifies that the attribute will be mapped to the column in the database.
     //Here the column name is explicitly mentioned as 'id'
     @Column(name = "id")
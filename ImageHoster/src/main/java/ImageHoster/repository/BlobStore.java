@@ -0,0 +1,64 @@
+package ImageHoster.repository;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A content addressed store for the binary image files uploaded in the ImageHoster application
+ * Every blob is keyed by the SHA-256 hash of its content, hence identical uploads are stored only once
+ * The 'images' table keeps only the hash, the size and the MIME type of the file and the bytes live in the BlobStore
+ */
+public interface BlobStore {
+
+    /**
+     * The method reads the received stream to its end and stores its content if a blob with the same content does not exist yet
+     * The stream is read in fixed size chunks which are hashed and written as they arrive, hence the memory used does not depend on the size of the content
+     *
+     * @param in      - The content of the file to be stored. The stream is not closed by the method
+     * @param maxSize - Maximum number of bytes accepted, a BlobTooLargeException is thrown and nothing is stored if the stream is longer
+     * @return - The key of the blob, i.e. the lowercase hex encoded SHA-256 hash of the content, and its size
+     * @throws IOException
+     */
+    StoredBlob put(InputStream in, long maxSize) throws IOException;
+
+    /**
+     * @param hash - The key of the blob
+     * @return - The blob with the corresponding key as a Resource and null if the blob does not exist in the store
+     */
+    Resource get(String hash);
+
+    /**
+     * @param hash - The key of the blob
+     * @return - true if the blob with the corresponding key exists in the store
+     */
+    boolean exists(String hash);
+
+    /**
+     * The method stores a scaled down copy (a rendition) of the blob next to the blob itself
+     *
+     * @param hash   - The key of the original blob
+     * @param width  - The width in pixels the rendition has been scaled to
+     * @param format - The image format of the rendition, 'jpg' or 'png'
+     * @param data   - The encoded rendition
+     * @throws IOException
+     */
+    void putRendition(String hash, int width, String format, byte[] data) throws IOException;
+
+    /**
+     * @param hash  - The key of the original blob
+     * @param width - The width of the rendition
+     * @return - The rendition of the blob with the corresponding width and null if it has not been generated yet
+     */
+    Resource getRendition(String hash, int width);
+
+    /**
+     * The method removes the blob with the corresponding key and all its renditions from the store
+     *
+     * @param hash - The key of the blob
+     * @return - true if the blob existed and has been removed
+     * @throws IOException
+     */
+    boolean delete(String hash) throws IOException;
+}
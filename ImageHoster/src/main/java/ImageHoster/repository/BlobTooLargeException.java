@@ -0,0 +1,14 @@
+package ImageHoster.repository;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the BlobStore when the content to be stored is larger than the allowed maximum size
+ * Nothing is stored in that case
+ */
+public class BlobTooLargeException extends IOException {
+
+    public BlobTooLargeException(long maxSize) {
+        super("The file is larger than the maximum allowed size of " + maxSize + " bytes");
+    }
+}
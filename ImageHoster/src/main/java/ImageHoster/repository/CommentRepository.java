@@ -2,39 +2,28 @@ package ImageHoster.repository;
 
 import ImageHoster.model.Comment;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
-import javax.persistence.PersistenceUnit;
+import javax.persistence.PersistenceContext;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
 public class CommentRepository {
 
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //The EntityManager is bound to the current transaction (or web request) and is closed by Spring when it ends, hence it is never closed by the repository
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     /**
      * The method receives the Comment object to be persisted in the database
-     * Creates an instance of EntityManager
-     * Starts a transaction
-     * The transaction is committed if it is successful
-     * The transaction is rolled back in case of unsuccessful transaction
+     * The method runs in a transaction, which is committed when the method returns and rolled back if it throws an exception
      *
      * @param comment - Comment type object to be persisted in the database
      */
+    @Transactional
     public void saveComment(Comment comment) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(comment);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        em.persist(comment);
     }
 }
@@ -0,0 +1,52 @@
+package ImageHoster.repository;
+
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+import java.util.List;
+
+//The annotation is a special type of @Component annotation which describes that the class defines a data repository
+@Repository
+public class ContentVersionRepository {
+
+    //Creates the version of the content at 1, or increments it if it exists. The time of the change never goes back, even if the clocks of the nodes differ slightly
+    private static final String STAMP = "INSERT INTO content_versions (name, version, modified) VALUES (:name, 1, clock_timestamp()) " +
+            "ON CONFLICT (name) DO UPDATE SET version = content_versions.version + 1, modified = greatest(content_versions.modified, clock_timestamp())";
+
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //The EntityManager is bound to the current transaction (or web request) and is closed by Spring when it ends, hence it is never closed by the repository
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
+
+    /**
+     * The method increments the versions of the received contents in a single transaction, creating the versions which do not exist yet
+     * The contents are to be passed in the same order by every caller, so that two concurrent stamps never wait on each other's rows
+     *
+     * @param names - The names of the contents, e.g. 'image:5' and 'feed'
+     */
+    @Transactional
+    public void stamp(Collection<String> names) {
+        for (String name : names) {
+            em.createNativeQuery(STAMP)
+                    .setParameter("name", name)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * The method fetches the version of the content with the received name, a single probe of the primary key of the 'content_versions' table
+     *
+     * @param name - The name of the content
+     * @return - The version (Number) and the time of the last change (java.util.Date) of the content, and null if the content has never been stamped
+     */
+    @Transactional(readOnly = true)
+    public Object[] getVersion(String name) {
+        List<?> rows = em.createNativeQuery("SELECT version, modified FROM content_versions WHERE name = :name")
+                .setParameter("name", name)
+                .getResultList();
+        return rows.isEmpty() ? null : (Object[]) rows.get(0);
+    }
+}
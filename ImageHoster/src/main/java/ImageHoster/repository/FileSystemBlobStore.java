@@ -0,0 +1,163 @@
+package ImageHoster.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.PathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * BlobStore backed by a directory on the local filesystem
+ * A blob with hash 'abcdef...' is stored in the file '<root>/ab/cd/abcdef...' so that no single directory grows too large
+ * The renditions of a blob are stored in the same directory as 'abcdef....w200.jpg'
+ * New blobs are first written in the '<root>/tmp' directory and then atomically moved to their final location, hence a reader never sees a partially written file
+ */
+@Repository
+@ConditionalOnProperty(name = "imagehoster.blobstore.type", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemBlobStore implements BlobStore {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private static final String[] RENDITION_FORMATS = {"jpg", "png"};
+
+    //Size of the chunks in which an upload is read, hashed and written
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    //The root directory of the store, configured with the 'imagehoster.blobstore.root' property
+    @Value("${imagehoster.blobstore.root}")
+    private String rootDirectory;
+
+    private Path root;
+
+    private Path tmp;
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(rootDirectory).toAbsolutePath();
+        tmp = root.resolve("tmp");
+        Files.createDirectories(tmp);
+    }
+
+    @Override
+    public StoredBlob put(InputStream in, long maxSize) throws IOException {
+        MessageDigest digest = sha256();
+        Path tempFile = Files.createTempFile(tmp, "upload", ".part");
+        try {
+            long size = 0;
+            byte[] buffer = new byte[CHUNK_SIZE];
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    size += read;
+                    if (size > maxSize) {
+                        throw new BlobTooLargeException(maxSize);
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+
+            String hash = toHex(digest.digest());
+            Path target = pathFor(hash);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return new StoredBlob(hash, size);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void putRendition(String hash, int width, String format, byte[] data) throws IOException {
+        write(renditionPath(hash, width, format), data);
+    }
+
+    @Override
+    public Resource getRendition(String hash, int width) {
+        for (String format : RENDITION_FORMATS) {
+            Path path = renditionPath(hash, width, format);
+            if (Files.isReadable(path)) {
+                return new PathResource(path);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Resource get(String hash) {
+        Path path = pathFor(hash);
+        return Files.isReadable(path) ? new PathResource(path) : null;
+    }
+
+    @Override
+    public boolean exists(String hash) {
+        return Files.exists(pathFor(hash));
+    }
+
+    @Override
+    public boolean delete(String hash) throws IOException {
+        Path path = pathFor(hash);
+        if (Files.isDirectory(path.getParent())) {
+            try (DirectoryStream<Path> renditions = Files.newDirectoryStream(path.getParent(), hash + ".w*")) {
+                for (Path rendition : renditions) {
+                    Files.deleteIfExists(rendition);
+                }
+            }
+        }
+        return Files.deleteIfExists(path);
+    }
+
+    //The file is written in the 'tmp' directory and then atomically moved to its final location
+    private void write(Path target, byte[] data) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tempFile = Files.createTempFile(tmp, target.getFileName().toString(), ".part");
+        try {
+            Files.write(tempFile, data);
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path renditionPath(String hash, int width, String format) {
+        return pathFor(hash).resolveSibling(hash + ".w" + width + "." + format);
+    }
+
+    //The hash is validated before it is used to build a path so that a crafted key can never point outside the root directory
+    private Path pathFor(String hash) {
+        if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Invalid blob key: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
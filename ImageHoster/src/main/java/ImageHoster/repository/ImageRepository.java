@@ -1,64 +1,148 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCursor;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.Tag;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
 public class ImageRepository {
 
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Selects only the attributes needed to list an image in a gallery page
+    private static final String SUMMARY_SELECT = "SELECT new ImageHoster.model.ImageSummary(i.id, i.title, i.date, u.username, i.contentHash) FROM Image i LEFT JOIN i.user u ";
+
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //The EntityManager is bound to the current transaction (or web request) and is closed by Spring when it ends, hence it is never closed by the repository
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
 
     /**
      * The method receives the Image object to be persisted in the database
-     * Creates an instance of EntityManager
-     * Starts a transaction
-     * The transaction is committed if it is successful
-     * The transaction is rolled back in case of unsuccessful transaction
+     * The method runs in a transaction, which is committed when the method returns and rolled back if it throws an exception
      *
      * @param newImage - The image to be persisted in the database
      * @return - This method returns the image persisted in the database
      */
+    @Transactional
     public Image uploadImage(Image newImage) {
+        em.persist(newImage);
+        return newImage;
+    }
 
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+    /**
+     * The method executes JPQL query to fetch the summaries of the newest images posted before the received cursor, newest first
+     * Only the id, title, date, owner name and content hash are selected, no Image entity is loaded and hence neither the owner profile, the tags nor the comments of the images are fetched
+     * The images are compared with the cursor on the (date, id) pair, which lets the database walk the index on these columns instead of skipping the rows of all the preceding pages
+     *
+     * @param cursor - The position after which the page starts, null for the first page of the feed
+     * @param limit  - Maximum number of images to be fetched
+     * @return - This method returns the list of the summaries of the fetched images
+     */
+    @Transactional(readOnly = true)
+    public List<ImageSummary> getImagesBefore(ImageCursor cursor, int limit) {
+        TypedQuery<ImageSummary> query;
+        if (cursor == null) {
+            query = em.createQuery(SUMMARY_SELECT + "ORDER BY i.date DESC, i.id DESC", ImageSummary.class);
+        } else {
+            query = em.createQuery(SUMMARY_SELECT + "WHERE (i.date, i.id) < (:date, :id) ORDER BY i.date DESC, i.id DESC", ImageSummary.class)
+                    .setParameter("date", cursor.getDate(), TemporalType.TIMESTAMP)
+                    .setParameter("id", cursor.getId());
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
 
-        try {
-            transaction.begin();
-            em.persist(newImage);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+    /**
+     * The method executes JPQL query to fetch the summaries of the oldest images posted after the received cursor, oldest first
+     *
+     * @param cursor - The position before which the page ends
+     * @param limit  - Maximum number of images to be fetched
+     * @return - This method returns the list of the summaries of the fetched images
+     */
+    @Transactional(readOnly = true)
+    public List<ImageSummary> getImagesAfter(ImageCursor cursor, int limit) {
+        return em.createQuery(SUMMARY_SELECT + "WHERE (i.date, i.id) > (:date, :id) ORDER BY i.date ASC, i.id ASC", ImageSummary.class)
+                .setParameter("date", cursor.getDate(), TemporalType.TIMESTAMP)
+                .setParameter("id", cursor.getId())
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * The method executes JPQL query to fetch the summaries of the images with the received ids, in no particular order
+     *
+     * @param imageIds - ids of the images to be fetched
+     * @return - This method returns the list of the summaries of the images found, the images deleted in the meantime are missing
+     */
+    @Transactional(readOnly = true)
+    public List<ImageSummary> getImageSummaries(Collection<Integer> imageIds) {
+        if (imageIds.isEmpty()) {
+            return new ArrayList<>();
         }
-        return newImage;
+        return em.createQuery(SUMMARY_SELECT + "WHERE i.id IN :imageIds", ImageSummary.class)
+                .setParameter("imageIds", imageIds)
+                .getResultList();
     }
 
     /**
-     * The method creates an instance of EntityManager
-     * Executes JPQL query to fetch all images from the database
-     * Returns the fetched images
-     * Returns null in case of NoResultException
+     * The method fetches the next batch of images to be added to the search index, ordered by id
+     * Only the id, title and description are selected, the tags are fetched with getTagNamesOfImages()
      *
-     * @return - This method returns the list of all images in the database and null in case of NoResultException
+     * @param afterId - id of the last image of the previous batch, 0 for the first batch
+     * @param limit   - maximum number of images to be fetched
+     * @return - A list of rows, each row containing the id, the title and the description of an image
      */
-    public List<Image> getAllImages() {
-        EntityManager em = emf.createEntityManager();
-        TypedQuery<Image> query = em.createQuery("SELECT i from Image i", Image.class);
-        List<Image> resultList = query.getResultList();
+    @Transactional(readOnly = true)
+    public List<Object[]> getImageTexts(int afterId, int limit) {
+        return em.createQuery("SELECT i.id, i.title, i.description from Image i where i.id > :afterId ORDER BY i.id", Object[].class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
 
-        return resultList;
+    /**
+     * The method fetches the next batch of the ids and dates of the images, ordered by id, to build the tag index
+     *
+     * @param afterId - id of the last image of the previous batch, 0 for the first batch
+     * @param limit   - maximum number of images to be fetched
+     * @return - A list of rows, each row containing the id and the date of an image
+     */
+    @Transactional(readOnly = true)
+    public List<Object[]> getImageDates(int afterId, int limit) {
+        return em.createQuery("SELECT i.id, i.date from Image i where i.id > :afterId ORDER BY i.id", Object[].class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * The method fetches the names of the tags of the images with the received ids
+     *
+     * @param imageIds - ids of the images
+     * @return - A list of rows, each row containing the id of an image and the name of one of its tags
+     */
+    @Transactional(readOnly = true)
+    public List<Object[]> getTagNamesOfImages(Collection<Integer> imageIds) {
+        if (imageIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return em.createQuery("SELECT i.id, t.name from Image i JOIN i.tags t where i.id IN :imageIds", Object[].class)
+                .setParameter("imageIds", imageIds)
+                .getResultList();
     }
 
     /**
      * The method receives the title of the image for which the details are to be fetched from the database
-     * Creates an instance of EntityManager
      * Executes JPQL query to fetch the image from the database
      * Returns the fetched image
      * Returns null in case of NoResultException
@@ -66,8 +150,8 @@ public class ImageRepository {
      * @param title - title of the image to be fetched from the database
      * @return - This method returns the image fetched from the database and null in case of NoResultException
      */
+    @Transactional(readOnly = true)
     public Image getImageByTitle(String title) {
-        EntityManager em = emf.createEntityManager();
         try {
             TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.title =:title", Image.class).setParameter("title", title);
             return typedQuery.getSingleResult();
@@ -77,66 +161,182 @@ public class ImageRepository {
     }
 
     /**
-     * The method creates an instance of EntityManager
-     * Executes JPQL query to fetch the image from the database with corresponding id
+     * The method executes JPQL query to fetch the image from the database with corresponding id
      * Returns the image fetched from the database
+     * Returns null in case of NoResultException
      *
      * @param imageId - id of the image to be fetched from the database
      * @return - This method returns the image fetched from the database and null in case of NoResultException
      */
+    @Transactional(readOnly = true)
     public Image getImage(Integer imageId) {
-        EntityManager em = emf.createEntityManager();
-        TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id =:imageId", Image.class).setParameter("imageId", imageId);
-        Image image = typedQuery.getSingleResult();
+        try {
+            TypedQuery<Image> typedQuery = em.createQuery("SELECT i from Image i where i.id =:imageId", Image.class).setParameter("imageId", imageId);
+            return typedQuery.getSingleResult();
+        } catch (NoResultException nre) {
+            return null;
+        }
+    }
+
+    /**
+     * The method fetches the image with corresponding id along with everything shown on the page of the image, in two queries
+     * The first query join fetches the owner of the image and the tags, the second one the comments and the author of each comment
+     * A single query can not fetch both the tags and the comments, it would return the product of both lists and Hibernate refuses to fetch two bags at once
+     * Both queries run in the same transaction, hence the second one fills the comments of the image instance returned by the first one
+     *
+     * @param imageId - id of the image to be fetched from the database
+     * @return - This method returns the image fetched from the database with its tags and comments initialized
+     */
+    @Transactional(readOnly = true)
+    public Image getImageWithDetails(Integer imageId) {
+        Image image = em.createQuery("SELECT DISTINCT i from Image i LEFT JOIN FETCH i.user u LEFT JOIN FETCH u.profile LEFT JOIN FETCH i.tags where i.id =:imageId", Image.class)
+                .setParameter("imageId", imageId)
+                .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+                .getSingleResult();
+        em.createQuery("SELECT DISTINCT i from Image i LEFT JOIN FETCH i.comments c LEFT JOIN FETCH c.user cu LEFT JOIN FETCH cu.profile where i.id =:imageId", Image.class)
+                .setParameter("imageId", imageId)
+                .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+                .getResultList();
         return image;
     }
 
     /**
-     * The method receives the Image object to be updated in the database
-     * Creates an instance of EntityManager
-     * Starts a transaction
-     * The transaction is committed if it is successful
-     * The transaction is rolled back in case of unsuccessful transaction
+     * The method receives the Image object holding the edited attributes of the image to be updated in the database
+     * The method runs in a transaction, which is committed when the method returns and rolled back if it throws an exception
+     * The image is loaded and only its edited attributes are changed, hence the UPDATE statement only sets the columns which have actually changed
+     * The content hash, size and MIME type of the image file are changed only if a new file has been uploaded
+     * The links to the tags are rewritten only if the tags have changed
+     * If the image has been updated or deleted since the version the edit is based on, or the edit holds no version, an ObjectOptimisticLockingFailureException is thrown and nothing is updated
+     * The same exception is thrown by the transaction manager if the image is updated by another request between the check and the commit
+     * The file replaced by a new one is not deleted here, since other images may have the same content. The returned content hash is to be passed to the BlobReaper
      *
-     * @param updatedImage - image to be updated in the database
+     * @param updatedImage - image holding the id, the version and the edited attributes of the image to be updated in the database
+     * @param fileUpdated  - true if a new image file has been uploaded and stored in the BlobStore
+     * @return - The content hash of the image file replaced by the new one, null if the file has not been replaced
      */
-    public void updateImage(Image updatedImage) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
+    @Transactional
+    public String updateImage(Image updatedImage, boolean fileUpdated) {
+        Image image = em.find(Image.class, updatedImage.getId());
+        if (image == null || !image.getVersion().equals(updatedImage.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Image.class, updatedImage.getId());
+        }
 
-        try {
-            transaction.begin();
-            em.merge(updatedImage);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+        image.setTitle(updatedImage.getTitle());
+        image.setDescription(updatedImage.getDescription());
+        image.setDate(updatedImage.getDate());
+        String replacedContentHash = null;
+        if (fileUpdated) {
+            if (!updatedImage.getContentHash().equals(image.getContentHash())) {
+                replacedContentHash = image.getContentHash();
+            }
+            image.setContentHash(updatedImage.getContentHash());
+            image.setSize(updatedImage.getSize());
+            image.setMimeType(updatedImage.getMimeType());
+        }
+        if (!sameTags(image.getTags(), updatedImage.getTags())) {
+            image.getTags().clear();
+            image.getTags().addAll(updatedImage.getTags());
+        }
+        return replacedContentHash;
+    }
+
+    private static boolean sameTags(List<Tag> tags, List<Tag> updatedTags) {
+        if (tags.size() != updatedTags.size()) {
+            return false;
+        }
+        for (int i = 0; i < tags.size(); i++) {
+            if (tags.get(i).getId() != updatedTags.get(i).getId()) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
      * The method receives the Image id of the image to be deleted in the database
-     * Creates an instance of EntityManager
-     * Starts a transaction
-     * Get the image with corresponding image id from the database
-     * This changes the state of the image model from detached state to persistent state, which is very essential to use the remove() method
-     * If you use remove() method on the object which is not in persistent state, an exception is thrown
-     * The transaction is committed if it is successful
-     * The transaction is rolled back in case of unsuccessful transaction
+     * The method runs in a transaction, which is committed when the method returns and rolled back if it throws an exception
+     * The image is deleted with bulk statements by its id, it is never loaded in the persistence context
+     * The comments on the image are deleted first, as they reference the image
+     * The bulk delete of the image is preceded by Hibernate with the delete of the links to its tags in the 'images_Tags' table, as the image owns the tags association
+     * The image file is not deleted here, since other images may have the same content. The returned content hash is to be passed to the BlobReaper
      *
      * @param imageId - id of the image to be deleted from the database
+     * @return - The content hash of the image file of the deleted image and null if the image had no file or did not exist
      */
-    public void deleteImage(Integer imageId) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            Image image = em.find(Image.class, imageId);
-            em.remove(image);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
+    @Transactional
+    public String deleteImage(Integer imageId) {
+        List<String> contentHashes = em.createQuery("SELECT i.contentHash from Image i where i.id =:imageId", String.class)
+                .setParameter("imageId", imageId)
+                .getResultList();
+        if (contentHashes.isEmpty()) {
+            return null;
         }
+
+        em.createQuery("DELETE from Comment c where c.image.id =:imageId")
+                .setParameter("imageId", imageId)
+                .executeUpdate();
+        em.createQuery("DELETE from Image i where i.id =:imageId")
+                .setParameter("imageId", imageId)
+                .executeUpdate();
+        return contentHashes.get(0);
     }
 
+    /**
+     * The method counts the images whose image file has the received content hash
+     * Identical uploads are stored only once in the BlobStore, hence a blob can only be deleted when no image references it anymore
+     *
+     * @param contentHash - The key of the image file in the BlobStore
+     * @return - The number of images referencing the image file
+     */
+    @Transactional(readOnly = true)
+    public long countImagesWithContentHash(String contentHash) {
+        return em.createQuery("SELECT count(i) from Image i where i.contentHash =:contentHash", Long.class)
+                .setParameter("contentHash", contentHash)
+                .getSingleResult();
+    }
+
+    /**
+     * Images uploaded before the BlobStore was introduced have their bytes stored base64 encoded in the legacy 'imageFile' column of the 'images' table
+     * The column is no longer mapped in the Image class, hence the method checks whether it still exists in the database
+     *
+     * @return - true if the 'images' table still has the legacy 'imageFile' column
+     */
+    @Transactional(readOnly = true)
+    public boolean hasLegacyImageFileColumn() {
+        Number count = (Number) em.createNativeQuery("SELECT count(*) FROM information_schema.columns WHERE table_name = 'images' AND column_name = 'imagefile'")
+                .getSingleResult();
+        return count.intValue() > 0;
+    }
+
+    /**
+     * The method fetches the next batch of images whose bytes are still stored in the legacy 'imageFile' column
+     *
+     * @param batchSize - maximum number of images to be fetched
+     * @return - A list of rows, each row containing the id of the image and its base64 encoded file
+     */
+    @SuppressWarnings("unchecked")
+    @Transactional(readOnly = true)
+    public List<Object[]> getLegacyImageFiles(int batchSize) {
+        return em.createNativeQuery("SELECT id, imageFile FROM images WHERE imageFile IS NOT NULL ORDER BY id")
+                .setMaxResults(batchSize)
+                .getResultList();
+    }
+
+    /**
+     * The method records the BlobStore key of an image migrated out of the legacy 'imageFile' column and clears the column
+     *
+     * @param imageId     - id of the migrated image
+     * @param contentHash - key of the image file in the BlobStore
+     * @param size        - size of the image file in bytes
+     * @param mimeType    - MIME type of the image file
+     */
+    @Transactional
+    public void completeLegacyImageFileMigration(Integer imageId, String contentHash, long size, String mimeType) {
+        em.createNativeQuery("UPDATE images SET content_hash = :contentHash, size = :size, mime_type = :mimeType, imageFile = NULL WHERE id = :imageId")
+                .setParameter("contentHash", contentHash)
+                .setParameter("size", size)
+                .setParameter("mimeType", mimeType)
+                .setParameter("imageId", imageId)
+                .executeUpdate();
+    }
 }
@@ -0,0 +1,25 @@
+package ImageHoster.repository;
+
+/**
+ * The result of storing a blob in the BlobStore: the key of the blob and the number of bytes that have been read
+ */
+public class StoredBlob {
+
+    //Lowercase hex encoded SHA-256 hash of the content, the key of the blob in the BlobStore
+    private final String hash;
+
+    private final long size;
+
+    public StoredBlob(String hash, long size) {
+        this.hash = hash;
+        this.size = size;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
@@ -1,57 +1,127 @@
 package ImageHoster.repository;
 
 import ImageHoster.model.Tag;
+import org.hibernate.Session;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
 public class TagRepository {
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+
+    //Inserts a tag unless a tag with the same lower case name already exists (unique index 'tags_lower_name_key'), a concurrent insert of the same name simply does nothing instead of failing
+    private static final String INSERT_IF_ABSENT = "INSERT INTO tags (id, name) VALUES (nextval('tags_id_seq'), ?) ON CONFLICT ((lower(name))) DO NOTHING";
+
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //The EntityManager is bound to the current transaction (or web request) and is closed by Spring when it ends, hence it is never closed by the repository
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     /**
      * The method receives the Tag object to be persisted in the database
-     * Creates an instance of EntityManager
-     * Starts a transaction
-     * The transaction is committed if it is successful
-     * The transaction is rolled back in case of unsuccessful transaction
+     * The method runs in a transaction, which is committed when the method returns and rolled back if it throws an exception
      *
      * @param tag - Tag object to be persisted in the database
      * @return - This method returns the tag persisted in the database
      */
+    @Transactional
     public Tag createTag(Tag tag) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            em.persist(tag);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        em.persist(tag);
         return tag;
     }
 
     /**
-     * The method creates an instance of EntityManager
-     * Executes JPQL query to fetch tag from the database with the received tag name
+     * The method executes JPQL query to fetch tag from the database with the received tag name, ignoring the case of the name
+     * The query is a single probe of the unique index on the lower case tag names
      * Returns the fetched tag
      * Returns null in case of NoResultException
      *
      * @param tagName - name of the tag which is to be fetched from the database
      * @return - Returns the tag fetched from the database and null in case of NoResultException
      */
+    @Transactional(readOnly = true)
     public Tag findTag(String tagName) {
-        EntityManager em = emf.createEntityManager();
         try {
-            TypedQuery<Tag> typedQuery = em.createQuery("SELECT t from Tag t where t.name =:tagName", Tag.class).setParameter("tagName", tagName);
+            TypedQuery<Tag> typedQuery = em.createQuery("SELECT t from Tag t where lower(t.name) = lower(:tagName)", Tag.class).setParameter("tagName", tagName);
             return typedQuery.getSingleResult();
         } catch (NoResultException nre) {
             return null;
         }
     }
+
+    /**
+     * The method executes a single JPQL query to fetch all the tags from the database whose name is one of the received names, ignoring the case of the names
+     * Both sides are lower cased by the database, with the same lower() as the unique index on the lower case tag names, hence a tag is found whenever the index considers the names equal
+     * The names which do not have a tag in the database are simply missing from the result
+     *
+     * @param tagNames - names of the tags which are to be fetched from the database
+     * @return - Returns the tags fetched from the database, in no particular order
+     */
+    @Transactional(readOnly = true)
+    public List<Tag> findTags(Collection<String> tagNames) {
+        if (tagNames.isEmpty()) {
+            return new ArrayList<>();
+        }
+        StringBuilder jpql = new StringBuilder("SELECT t from Tag t where lower(t.name) in (");
+        for (int i = 0; i < tagNames.size(); i++) {
+            jpql.append(i == 0 ? "" : ", ").append("lower(:name").append(i).append(")");
+        }
+        TypedQuery<Tag> query = em.createQuery(jpql.append(")").toString(), Tag.class);
+        int i = 0;
+        for (String tagName : tagNames) {
+            query.setParameter("name" + i++, tagName);
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * The method executes JPQL query to fetch the tags which have the most images, most used first
+     *
+     * @param limit - maximum number of tags to be fetched
+     * @return - Returns the tags fetched from the database
+     */
+    @Transactional(readOnly = true)
+    public List<Tag> findMostUsedTags(int limit) {
+        return em.createQuery("SELECT t from Tag t left join t.images i group by t order by count(i) desc, t.id", Tag.class)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * The method executes JPQL query to fetch the name of every tag along with the number of images having the tag
+     *
+     * @return - A list of rows, each row containing the name of a tag and its number of images
+     */
+    @Transactional(readOnly = true)
+    public List<Object[]> getTagUsage() {
+        return em.createQuery("SELECT t.name, count(i) from Tag t left join t.images i group by t.id, t.name", Object[].class)
+                .getResultList();
+    }
+
+    /**
+     * The method inserts a tag for each of the received names for which no tag exists yet
+     * The names are sent to the database in a single JDBC batch of 'INSERT ... ON CONFLICT DO NOTHING' statements, in a single transaction
+     * A tag inserted concurrently by another transaction makes the corresponding insert a no-op instead of creating a duplicate or failing
+     * The inserted tags are not returned, they are to be fetched with findTags() afterwards
+     *
+     * @param tagNames - names of the tags to be inserted in the database
+     */
+    @Transactional
+    public void insertTagsIfAbsent(Collection<String> tagNames) {
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_IF_ABSENT)) {
+                for (String tagName : tagNames) {
+                    statement.setString(1, tagName);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
 }
@@ -2,43 +2,33 @@ package ImageHoster.repository;
 
 import ImageHoster.model.User;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.*;
 
 //The annotation is a special type of @Component annotation which describes that the class defines a data repository
 @Repository
 public class UserRepository {
-    //Get an instance of EntityManagerFactory from persistence unit with name as 'imageHoster'
-    @PersistenceUnit(unitName = "imageHoster")
-    private EntityManagerFactory emf;
+    //Get the shared EntityManager of the persistence unit with name as 'imageHoster'
+    //The EntityManager is bound to the current transaction (or web request) and is closed by Spring when it ends, hence it is never closed by the repository
+    @PersistenceContext(unitName = "imageHoster")
+    private EntityManager em;
 
     /**
      * The method receives the User object to be persisted in the database
-     * Creates an instance of EntityManager
-     * Starts a transaction
-     * The transaction is committed if it is successful
-     * The transaction is rolled back in case of unsuccessful transaction
+     * The method runs in a transaction, which is committed when the method returns and rolled back if it throws an exception
      *
      * @param newUser - The user to be persisted in the database
      */
+    @Transactional
     public void registerUser(User newUser) {
-        EntityManager em = emf.createEntityManager();
-        EntityTransaction transaction = em.getTransaction();
-
-        try {
-            transaction.begin();
-            //persist() method changes the state of the model object from transient state to persistence state
-            em.persist(newUser);
-            transaction.commit();
-        } catch (Exception e) {
-            transaction.rollback();
-        }
+        //persist() method changes the state of the model object from transient state to persistence state
+        em.persist(newUser);
     }
 
 
     /**
      * The method receives the entered username and password
-     * Creates an instance of EntityManager
      * Executes JPQL query to fetch the user from User class where username is equal to received username and password is equal to received password
      * Returns the fetched user
      * Returns null in case of NoResultException
@@ -47,9 +37,9 @@ public class UserRepository {
      * @param password - password entered by the user
      * @return - This method returns the User with corresponding username and passsword from the database and null in case of NoResultException
      */
+    @Transactional(readOnly = true)
     public User checkUser(String username, String password) {
         try {
-            EntityManager em = emf.createEntityManager();
             TypedQuery<User> typedQuery = em.createQuery("SELECT u FROM User u WHERE u.username = :username AND u.password = :password", User.class);
             typedQuery.setParameter("username", username);
             typedQuery.setParameter("password", password);
@@ -0,0 +1,154 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.BlobStore;
+import ImageHoster.repository.ImageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the image files of the deleted images, and their renditions, from the BlobStore in the background
+ * Deleting an image only deletes its rows in the database, hence the time taken by the request does not depend on the size of the image file
+ * A blob is deleted only if no image references its content hash anymore, since identical uploads share the same blob
+ * The deletion is delayed by a grace period, longer than the timeout of the uploads, so that an upload of the same content running at the time of the delete has inserted its row before the references are counted
+ * An upload holds the content hash of its file from the time the file is stored until its row is committed, a held blob is never deleted whatever the time the upload takes
+ * A failed deletion is retried with an exponential backoff. The queue is held in memory, hence the deletions pending when the application stops leave their blobs behind
+ */
+@Service
+public class BlobReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobReaper.class);
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    //Number of seconds a blob is kept after the deletion of the last image referencing it, longer than imagehoster.upload.timeout-ms
+    @Value("${imagehoster.blobs.reaper.delay-seconds:180}")
+    private long delaySeconds;
+
+    //Number of attempts to delete a blob before it is given up and left in the store
+    @Value("${imagehoster.blobs.reaper.max-attempts:5}")
+    private int maxAttempts;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    //Content hashes for which a deletion is scheduled, so that the same blob is never scheduled twice
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    //Number of uploads in progress holding every content hash, guarded by its own monitor which is also held while a blob is checked and deleted
+    private final Map<String, Integer> holds = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "blob-reaper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        if (!pending.isEmpty()) {
+            log.info("{} image files scheduled for deletion are left in the blob store", pending.size());
+        }
+    }
+
+    /**
+     * The method schedules the deletion of the image file with the corresponding content hash, and of its renditions, after the grace period
+     * It is to be called once the transaction deleting the image has been committed
+     * The method returns immediately, the blob is deleted on the reaper thread
+     *
+     * @param contentHash - The key of the image file in the BlobStore
+     */
+    public void enqueue(String contentHash) {
+        if (contentHash == null || !pending.add(contentHash)) {
+            return;
+        }
+        schedule(contentHash, 1);
+    }
+
+    /**
+     * The method prevents the deletion of the image file with the corresponding content hash until release() is called with the same hash
+     * It is to be called as soon as the file is stored, and release() once the row referencing the file is committed or the upload has failed
+     * The blob may have been deleted just before the call, the caller is then to check that it still exists and store it again if it does not
+     *
+     * @param contentHash - The key of the image file in the BlobStore
+     */
+    public void hold(String contentHash) {
+        if (contentHash == null) {
+            return;
+        }
+        synchronized (holds) {
+            holds.merge(contentHash, 1, Integer::sum);
+        }
+    }
+
+    //The method releases a hold taken with hold(), the blob can be deleted again once no image references it
+    public void release(String contentHash) {
+        if (contentHash == null) {
+            return;
+        }
+        synchronized (holds) {
+            holds.computeIfPresent(contentHash, (hash, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    //The number of deletions scheduled and not completed yet
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void schedule(String contentHash, int attempt) {
+        //The delay doubles with every failed attempt: 1, 2, 4, ... times the grace period
+        long delay = delaySeconds << (attempt - 1);
+        try {
+            executor.schedule(() -> reap(contentHash, attempt), delay, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            pending.remove(contentHash);
+        }
+    }
+
+    private void reap(String contentHash, int attempt) {
+        try {
+            //The hold is checked under the same monitor as the deletion, hence an upload taking a hold afterwards finds the blob either present or already deleted
+            synchronized (holds) {
+                if (holds.containsKey(contentHash)) {
+                    //An upload of the same content is in progress, the references are counted again once the grace period has elapsed
+                    executor.schedule(() -> reap(contentHash, attempt), delaySeconds, TimeUnit.SECONDS);
+                    return;
+                }
+                if (imageRepository.countImagesWithContentHash(contentHash) == 0) {
+                    blobStore.delete(contentHash);
+                }
+            }
+            pending.remove(contentHash);
+        } catch (Exception e) {
+            if (attempt < maxAttempts) {
+                log.warn("Could not delete image file {} (attempt {} of {}), retrying", contentHash, attempt, maxAttempts, e);
+                schedule(contentHash, attempt + 1);
+            } else {
+                pending.remove(contentHash);
+                log.error("Could not delete image file {} after {} attempts, it is left in the blob store", contentHash, attempt, e);
+            }
+        }
+    }
+}
@@ -20,9 +20,15 @@ public class CommentService {
     @Autowired
     private CommentRepository commentRepository;
 
+    //Stamps the page of the commented image, to answer conditional requests
+    @Autowired
+    private ContentVersionService contentVersionService;
+
     //The method calls the saveComment() method in the Repository and passes the comment to be persisted in the database
+    //The page of the image is then stamped as changed
     public void saveComment(Comment comment) {
         commentRepository.saveComment(comment);
+        contentVersionService.commentsChanged(comment.getImage().getId());
     }
 
 }
@@ -0,0 +1,61 @@
+package ImageHoster.service;
+
+import ImageHoster.model.ContentVersion;
+import ImageHoster.repository.ContentVersionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Versions of the content shown on the pages of the application, to answer conditional requests without loading the content of the pages
+ * Every write made through the ImageService or the CommentService stamps the image it changed, and an upload, edit or delete also stamps the feed of all the images
+ * The versions are kept in the 'content_versions' table and not in memory, hence a page cached from one node is validated against the writes made through every node
+ * Reading a version is a single probe of the primary key of the table, much cheaper than loading and rendering the page
+ * A version is the number of writes of the content along with the time of the last one, the time tells the versions of a content apart once the database has been recreated
+ * The stamp of an image must be read before the image is loaded and must be set once the write is committed, so that a page is never sent with a stamp newer than its content
+ */
+@Service
+public class ContentVersionService {
+
+    private static final String FEED = "feed";
+
+    @Autowired
+    private ContentVersionRepository contentVersionRepository;
+
+    //The method stamps the uploaded, edited or deleted image, and the feed of all the images
+    //The image is always stamped before the feed, so that concurrent stamps lock the rows in the same order
+    public void imageChanged(Integer imageId) {
+        contentVersionRepository.stamp(Arrays.asList(imageKey(imageId), FEED));
+    }
+
+    //The method stamps the image whose comments have changed, the feed of all the images does not show the comments
+    public void commentsChanged(Integer imageId) {
+        contentVersionRepository.stamp(Collections.singletonList(imageKey(imageId)));
+    }
+
+    //The version of the page of the image, to be used as an ETag along with the user the page is rendered for
+    public ContentVersion getImageVersion(Integer imageId) {
+        return toVersion("i" + imageId + "-", contentVersionRepository.getVersion(imageKey(imageId)));
+    }
+
+    //The version of the pages of the feed of all the images
+    public ContentVersion getFeedVersion() {
+        return toVersion("f-", contentVersionRepository.getVersion(FEED));
+    }
+
+    private static String imageKey(Integer imageId) {
+        return "image:" + imageId;
+    }
+
+    //A content never stamped has the version '0' on every node, with no time of last change
+    private static ContentVersion toVersion(String prefix, Object[] version) {
+        if (version == null) {
+            return new ContentVersion(prefix + "0", -1);
+        }
+        long modified = ((Date) version[1]).getTime();
+        return new ContentVersion(prefix + Long.toString(modified, 36) + "." + ((Number) version[0]).longValue(), modified);
+    }
+}
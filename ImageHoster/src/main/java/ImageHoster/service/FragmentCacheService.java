@@ -0,0 +1,114 @@
+package ImageHoster.service;
+
+import ImageHoster.model.ContentVersion;
+import ImageHoster.model.ImageSummary;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the html fragments of the gallery pages, rendered once and served to every visitor, as the listing of the images does not depend on the user
+ * Two kinds of fragments are cached: the gallery of a page of images, keyed by the cursor and the size of the page, and the card of a single image
+ * A gallery is keyed by the version of the feed of all the images, which the ContentVersionService keeps in the database shared by all the nodes
+ * An upload, edit or delete made through any node hence changes the key of every gallery, as it moves the images from one page to another, and the galleries cached before are never served again
+ * The ImageChangedEvent of this node drops them right away, and the galleries of the other nodes expire after ttl-seconds
+ * A card is keyed by the attributes of the image it shows, hence an edited image gets a new card and the card of the previous version is eventually evicted
+ * Both caches are bounded by the approximate number of bytes of the cached html, the least frequently used fragments are evicted beyond it
+ */
+@Service
+public class FragmentCacheService {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //Maximum number of bytes of html held in the cache of the galleries
+    @Value("${imagehoster.fragments.galleries.max-bytes:4194304}")
+    private long galleriesMaxBytes;
+
+    //Number of seconds a gallery is kept after it has been rendered, it is no longer requested once an image has been changed through another node
+    @Value("${imagehoster.fragments.galleries.ttl-seconds:300}")
+    private long galleriesTtlSeconds;
+
+    //Maximum number of bytes of html held in the cache of the cards of the images
+    @Value("${imagehoster.fragments.cards.max-bytes:8388608}")
+    private long cardsMaxBytes;
+
+    private Cache<String, String> galleries;
+
+    private Cache<String, String> cards;
+
+    @PostConstruct
+    public void init() {
+        galleries = Caffeine.newBuilder()
+                .maximumWeight(galleriesMaxBytes)
+                .weigher(FragmentCacheService::weigh)
+                .expireAfterWrite(galleriesTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        cards = Caffeine.newBuilder()
+                .maximumWeight(cardsMaxBytes)
+                .weigher(FragmentCacheService::weigh)
+                .recordStats()
+                .build();
+        //Publishes the hits, misses and evictions of the caches as the 'cache.*' metrics
+        CaffeineCacheMetrics.monitor(meterRegistry, galleries, "galleryFragments");
+        CaffeineCacheMetrics.monitor(meterRegistry, cards, "cardFragments");
+    }
+
+    /**
+     * The method returns the key of the gallery of a page of images, to be computed before the images of the page are read
+     * A gallery rendered from the images read before a change is hence stored under a key which is never requested again
+     *
+     * @param feedVersion - The version of the feed of all the images, read from the ContentVersionService
+     * @param view        - The name of the view showing the gallery
+     * @param before      - The cursor of the image the page starts after
+     * @param after       - The cursor of the image the page ends before
+     * @param size        - The number of images of the page as requested
+     * @return - The key of the gallery in the version of the feed
+     */
+    public String galleryKey(ContentVersion feedVersion, String view, String before, String after, Integer size) {
+        return feedVersion.getTag() + ":" + view + ":" + before + ":" + after + ":" + size;
+    }
+
+    //The method returns the key of the card of the image in the received view
+    public String cardKey(String view, ImageSummary image) {
+        return view + ":" + image.getId() + ":" + image.getContentHash() + ":" + (image.getDate() != null ? image.getDate().getTime() : 0) + ":" + image.getTitle();
+    }
+
+    //The method returns the cached gallery and null if it is not cached
+    public String getGallery(String key) {
+        return key != null ? galleries.getIfPresent(key) : null;
+    }
+
+    public void putGallery(String key, String html) {
+        galleries.put(key, html);
+    }
+
+    //The method returns the cached card and null if it is not cached
+    public String getCard(String key) {
+        return key != null ? cards.getIfPresent(key) : null;
+    }
+
+    public void putCard(String key, String html) {
+        cards.put(key, html);
+    }
+
+    //The method drops all the galleries of this node once an image has been uploaded, edited or deleted through it, they are keyed by an outdated version of the feed
+    @EventListener
+    public void onImageChanged(ImageChangedEvent event) {
+        galleries.invalidateAll();
+    }
+
+    //A String takes about two bytes per character
+    private static int weigh(String key, String html) {
+        return 2 * (key.length() + html.length());
+    }
+}
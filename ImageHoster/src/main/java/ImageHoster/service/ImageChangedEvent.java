@@ -0,0 +1,18 @@
+package ImageHoster.service;
+
+/**
+ * Published by the ImageService once an image has been uploaded, edited or deleted and the change has been committed
+ * Listeners holding data derived from the images, such as the rendered gallery pages, invalidate it on this event
+ */
+public class ImageChangedEvent {
+
+    private final Integer imageId;
+
+    public ImageChangedEvent(Integer imageId) {
+        this.imageId = imageId;
+    }
+
+    public Integer getImageId() {
+        return imageId;
+    }
+}
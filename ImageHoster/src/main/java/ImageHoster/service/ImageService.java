@@ -1,17 +1,43 @@
 package ImageHoster.service;
 
 import ImageHoster.model.Image;
+import ImageHoster.model.ImageCursor;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.repository.BlobStore;
 import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.StoredBlob;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 @Service
 public class ImageService {
 
+    //The image types accepted on upload, with the magic numbers their files start with
+    private static final String MIME_JPEG = "image/jpeg";
+    private static final String MIME_PNG = "image/png";
+    private static final String MIME_GIF = "image/gif";
+    private static final String MIME_WEBP = "image/webp";
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] GIF87_MAGIC = "GIF87a".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GIF89_MAGIC = "GIF89a".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RIFF_MAGIC = "RIFF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WEBP_MAGIC = "WEBP".getBytes(StandardCharsets.US_ASCII);
+
     /**
      * This class needs an object of ImageRepository class
      * One way is to simply declare the object of ImageRepository class in this class using new operator
@@ -23,15 +49,92 @@ public class ImageService {
     @Autowired
     private ImageRepository imageRepository;
 
-    //Call the getAllImages() method in the Repository and obtain a List of all the images in the database
-    public List<Image> getAllImages() {
-        return imageRepository.getAllImages();
+    //The BlobStore holding the bytes of all the image files, keyed by their SHA-256 hash
+    @Autowired
+    private BlobStore blobStore;
+
+    //Deletes the image files of the deleted images from the BlobStore in the background
+    @Autowired
+    private BlobReaper blobReaper;
+
+    //Keeps the search index up to date with the uploaded, edited and deleted images
+    @Autowired
+    private SearchService searchService;
+
+    //Keeps the index of the images of every tag up to date
+    @Autowired
+    private TagIndexService tagIndexService;
+
+    //Publishes the ImageChangedEvent once an image has been uploaded, edited or deleted
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    //Stamps the pages showing the uploaded, edited and deleted images, to answer conditional requests
+    @Autowired
+    private ContentVersionService contentVersionService;
+
+    //Generates the scaled down renditions of the uploaded image files in the background
+    @Autowired
+    private RenditionService renditionService;
+
+    //Maximum size in bytes of an uploaded image file, enforced while the file is streamed to the BlobStore
+    @Value("${imagehoster.upload.max-file-size:10485760}")
+    private long maxFileSize;
+
+    //Number of images shown on one page of the gallery feed
+    @Value("${imagehoster.feed.page-size:20}")
+    private int defaultPageSize;
+
+    //Upper bound of the page size requested with the 'size' request parameter
+    @Value("${imagehoster.feed.max-page-size:100}")
+    private int maxPageSize;
+
+    /**
+     * The method returns one page of the gallery feed, newest images first
+     * With the 'before' cursor the page holds the images posted just before it, with the 'after' cursor the images posted just after it, and without cursor the newest images
+     * One more image than the page size is fetched to know whether there is a page beyond the current one
+     *
+     * @param before - Cursor of the image the page is to start after, the page then holds older images
+     * @param after  - Cursor of the image the page is to end before, the page then holds newer images
+     * @param size   - Requested number of images per page, null for the default page size
+     * @return - The page of images along with the cursors of the previous and the next page
+     */
+    public ImagePage getImagePage(String before, String after, Integer size) {
+        int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+
+        ImageCursor afterCursor = ImageCursor.parse(after);
+        if (afterCursor != null) {
+            List<ImageSummary> newer = imageRepository.getImagesAfter(afterCursor, pageSize + 1);
+            //If there is no newer page the first page of the feed is shown, so that the page is always full
+            if (newer.size() > pageSize) {
+                List<ImageSummary> images = new ArrayList<>(newer.subList(0, pageSize));
+                Collections.reverse(images);
+                return new ImagePage(images, cursorOf(images, 0), cursorOf(images, images.size() - 1));
+            }
+        }
+
+        ImageCursor beforeCursor = afterCursor == null ? ImageCursor.parse(before) : null;
+        List<ImageSummary> older = imageRepository.getImagesBefore(beforeCursor, pageSize + 1);
+        boolean hasNext = older.size() > pageSize;
+        List<ImageSummary> images = hasNext ? older.subList(0, pageSize) : older;
+        String previousCursor = beforeCursor != null ? cursorOf(images, 0) : null;
+        String nextCursor = hasNext ? cursorOf(images, images.size() - 1) : null;
+        return new ImagePage(images, previousCursor, nextCursor);
+    }
+
+    private static String cursorOf(List<ImageSummary> images, int index) {
+        return images.isEmpty() ? null : ImageCursor.of(images.get(index)).toString();
     }
 
 
     //The method calls the uploadImage() method in the Repository and passes the image to be persisted in the database
+    //The image is then added to the search and tag indexes, the feed of all the images is stamped as changed and the ImageChangedEvent is published
     public void uploadImage(Image image) {
         imageRepository.uploadImage(image);
+        searchService.index(image);
+        tagIndexService.index(image);
+        contentVersionService.imageChanged(image.getId());
+        eventPublisher.publishEvent(new ImageChangedEvent(image.getId()));
     }
 
 
@@ -45,14 +148,134 @@ public class ImageService {
         return imageRepository.getImage(imageId);
     }
 
-    //The method calls the updateImage() method in the Repository and passes the Image to be updated in the database
-    public void updateImage(Image updatedImage) {
-        imageRepository.updateImage(updatedImage);
+    //The method calls the getImageWithDetails() method in the Repository to fetch the image with corresponding id along with its tags and comments, to be shown on the page of the image
+    public Image getImageWithDetails(Integer imageId) {
+        return imageRepository.getImageWithDetails(imageId);
+    }
+
+    //The method calls the updateImage() method in the Repository and passes the edited attributes of the Image to be updated in the database
+    //The file replaced by the new one is deleted from the BlobStore in the background by the BlobReaper, once no image references it anymore
+    //If the update fails, e.g. as the edit is based on an outdated version of the image, the new file stored before the update is handed to the BlobReaper in the same way
+    public void updateImage(Image updatedImage, boolean fileUpdated) {
+        String replacedContentHash;
+        try {
+            replacedContentHash = imageRepository.updateImage(updatedImage, fileUpdated);
+        } catch (RuntimeException e) {
+            if (fileUpdated) {
+                blobReaper.enqueue(updatedImage.getContentHash());
+            }
+            throw e;
+        }
+        blobReaper.enqueue(replacedContentHash);
+        searchService.index(updatedImage);
+        tagIndexService.index(updatedImage);
+        contentVersionService.imageChanged(updatedImage.getId());
+        eventPublisher.publishEvent(new ImageChangedEvent(updatedImage.getId()));
     }
 
     //The method calls the deleteImage() method in the Repository and passes the Image id of the image to be deleted in the database
+    //The image file is deleted from the BlobStore in the background by the BlobReaper, once no image references it anymore
     public void deleteImage(Integer imageId) {
-        imageRepository.deleteImage(imageId);
+        String contentHash = imageRepository.deleteImage(imageId);
+        searchService.remove(imageId);
+        tagIndexService.remove(imageId);
+        contentVersionService.imageChanged(imageId);
+        eventPublisher.publishEvent(new ImageChangedEvent(imageId));
+        blobReaper.enqueue(contentHash);
+    }
+
+    /**
+     * The method stores the uploaded file in the BlobStore and sets the content hash, size and MIME type of the image
+     * The bytes of the file are never stored in the 'images' table
+     * The file is streamed to the BlobStore in fixed size chunks, it is never loaded in memory as a whole
+     * The generation of the renditions of the file is queued and happens in the background
+     * The type of the file is detected from its first bytes, the content type sent by the client is ignored. Only JPEG, PNG, GIF and WebP files are accepted,
+     * as the file is served from the origin of the application and any other type, e.g. SVG or HTML, could carry a script run in the pages of the application
+     *
+     * @param image - The image the uploaded file belongs to
+     * @param file  - The uploaded image file
+     * @throws IOException - A BlobTooLargeException if the file is larger than the maximum upload size, an UnsupportedImageTypeException if the file is not a JPEG, PNG, GIF or WebP image
+     */
+    public void storeImageFile(Image image, MultipartFile file) throws IOException {
+        try (InputStream in = new BufferedInputStream(file.getInputStream())) {
+            String mimeType = detectMimeType(in);
+            if (mimeType == null) {
+                throw new UnsupportedImageTypeException();
+            }
+            StoredBlob blob = blobStore.put(in, maxFileSize);
+            image.setContentHash(blob.getHash());
+            image.setSize(blob.getSize());
+            image.setMimeType(mimeType);
+        }
+        renditionService.enqueue(image.getContentHash());
+    }
+
+    //The method returns the image file of the image from the BlobStore and null if the image has no file
+    public Resource getImageFile(Image image) {
+        if (image.getContentHash() == null) {
+            return null;
+        }
+        return blobStore.get(image.getContentHash());
+    }
+
+    /**
+     * The method returns the rendition of the image file scaled down to the received width
+     * If the rendition has not been generated yet, its generation is queued and the method returns null. The original file is then to be served instead
+     *
+     * @param image - The image whose rendition is to be fetched
+     * @param width - The width of the rendition
+     * @return - The rendition of the image file and null if it does not exist (yet)
+     */
+    public Resource getImageRendition(Image image, int width) {
+        if (image.getContentHash() == null || !renditionService.isRenditionWidth(width)) {
+            return null;
+        }
+        Resource rendition = blobStore.getRendition(image.getContentHash(), width);
+        if (rendition == null) {
+            renditionService.enqueue(image.getContentHash());
+        }
+        return rendition;
+    }
+
+    //The method tells whether the MIME type is one of the image types accepted on upload, hence safe to be served from the origin of the application
+    public static boolean isSupportedMimeType(String mimeType) {
+        return MIME_JPEG.equals(mimeType) || MIME_PNG.equals(mimeType) || MIME_GIF.equals(mimeType) || MIME_WEBP.equals(mimeType);
+    }
+
+    /**
+     * The method detects the type of the file from its first bytes, the magic number of its format
+     * Only the JPEG, PNG, GIF and WebP formats are recognized. The stream is reset to its start afterwards
+     *
+     * @param in - The content of the file, a stream supporting mark and reset
+     * @return - The MIME type of the file, null if the file is not in one of the recognized formats
+     * @throws IOException
+     */
+    static String detectMimeType(InputStream in) throws IOException {
+        byte[] header = new byte[12];
+        in.mark(header.length);
+        int length = 0;
+        for (int read; length < header.length && (read = in.read(header, length, header.length - length)) > 0; ) {
+            length += read;
+        }
+        in.reset();
+
+        if (startsWith(header, length, 0, JPEG_MAGIC)) {
+            return MIME_JPEG;
+        }
+        if (startsWith(header, length, 0, PNG_MAGIC)) {
+            return MIME_PNG;
+        }
+        if (startsWith(header, length, 0, GIF87_MAGIC) || startsWith(header, length, 0, GIF89_MAGIC)) {
+            return MIME_GIF;
+        }
+        //A WebP file is a RIFF container whose form type, after the 4 bytes of the size of the container, is 'WEBP'
+        if (startsWith(header, length, 0, RIFF_MAGIC) && startsWith(header, length, 8, WEBP_MAGIC)) {
+            return MIME_WEBP;
+        }
+        return null;
     }
 
+    private static boolean startsWith(byte[] header, int length, int offset, byte[] magic) {
+        return length >= offset + magic.length && Arrays.equals(Arrays.copyOfRange(header, offset, offset + magic.length), magic);
+    }
 }
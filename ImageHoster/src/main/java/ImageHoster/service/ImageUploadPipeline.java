@@ -0,0 +1,238 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.Tag;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the uploads off the servlet threads, so that a burst of slow uploads never holds the threads serving the pages
+ * An upload goes through three stages, each running on its own bounded pool of worker threads:
+ * 'store' reads the file spooled to disk by the servlet container, detects its type and streams it to the BlobStore, which hashes it and enforces the maximum size on the way
+ * 'tags' resolves the tags of the image, it runs at the same time as 'store' as it does not depend on the file
+ * 'persist' inserts the image once both are done, and adds it to the indexes. Its pool is kept small, so that the uploads never take more than a few connections of the database pool from the page views
+ * At most max-in-flight uploads are accepted at a time and the queue of every stage can hold all of them, hence a stage never rejects an accepted upload. An upload beyond the limit is refused with '503 Service Unavailable'
+ * An upload can be cancelled, e.g. when its request times out, as long as its image is not being inserted: the stages not started yet are then skipped and nothing is inserted
+ * The file of an upload which fails or is cancelled after its file has been stored is handed to the BlobReaper, so that no unreferenced file is left in the BlobStore
+ * An upload holds its file in the BlobReaper from the store stage until it completes, and the persist stage stores the file again if the file of an identical deleted image was reaped meanwhile
+ * The depth of the queue and the number of busy threads of every stage are published as the imagehoster.upload.queue and imagehoster.upload.active metrics, and the time spent in every stage as the imagehoster.upload.stage timer
+ */
+@Service
+public class ImageUploadPipeline {
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private TagService tagService;
+
+    //Deletes the stored files of the failed and cancelled uploads from the BlobStore in the background
+    @Autowired
+    private BlobReaper blobReaper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${imagehoster.upload.store-threads:4}")
+    private int storeThreads;
+
+    @Value("${imagehoster.upload.tag-threads:1}")
+    private int tagThreads;
+
+    @Value("${imagehoster.upload.persist-threads:2}")
+    private int persistThreads;
+
+    //Maximum number of uploads accepted and not completed yet
+    @Value("${imagehoster.upload.max-in-flight:64}")
+    private int maxInFlight;
+
+    //Maximum time in milliseconds an upload request waits for its image to be committed, including the time spent in the queues of the stages
+    @Value("${imagehoster.upload.timeout-ms:120000}")
+    private long timeoutMillis;
+
+    private Semaphore inFlight;
+
+    private ThreadPoolExecutor storeExecutor;
+
+    private ThreadPoolExecutor tagExecutor;
+
+    private ThreadPoolExecutor persistExecutor;
+
+    private Timer storeTimer;
+
+    private Timer tagTimer;
+
+    private Timer persistTimer;
+
+    @PostConstruct
+    public void init() {
+        inFlight = new Semaphore(maxInFlight);
+        storeExecutor = createStage("store", storeThreads);
+        tagExecutor = createStage("tags", tagThreads);
+        persistExecutor = createStage("persist", persistThreads);
+        storeTimer = stageTimer("store");
+        tagTimer = stageTimer("tags");
+        persistTimer = stageTimer("persist");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        storeExecutor.shutdown();
+        tagExecutor.shutdown();
+        persistExecutor.shutdown();
+    }
+
+    //The time an upload request is to wait for its image to be committed, the request timing out is to cancel the upload
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * The method accepts the upload and returns immediately, the upload completes on the worker threads
+     * The uploaded file must remain readable until the returned future completes, i.e. the request must not complete before
+     * Cancelling the returned future skips the stages not started yet. It fails, and the upload completes as usual, once the image is being inserted
+     *
+     * @param image    - The image to be uploaded, with its title, description and owner set
+     * @param file     - The uploaded image file
+     * @param tagNames - The names of the tags of the image
+     * @return - A future completed with the image once it is committed to the database, or completed exceptionally with the failure of a stage
+     * @throws ResponseStatusException - '503 Service Unavailable' if max-in-flight uploads are already running
+     */
+    public CompletableFuture<Image> upload(Image image, MultipartFile file, List<String> tagNames) {
+        if (!inFlight.tryAcquire()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads in progress");
+        }
+        Upload upload = new Upload();
+        CompletableFuture<Void> stored;
+        CompletableFuture<Image> uploaded;
+        try {
+            stored = CompletableFuture.runAsync(() -> storeTimer.record(() -> store(upload, image, file)), storeExecutor);
+            CompletableFuture<List<Tag>> tags = CompletableFuture.supplyAsync(() -> tagTimer.record(() -> findOrCreateTags(upload, tagNames)), tagExecutor);
+            uploaded = stored.thenCombineAsync(tags, (none, imageTags) -> persistTimer.record(() -> persist(upload, image, file, imageTags)), persistExecutor);
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        uploaded.whenComplete((result, error) -> {
+            inFlight.release();
+            if (stored.isDone() && !stored.isCompletedExceptionally()) {
+                blobReaper.release(image.getContentHash());
+            }
+            if (error != null) {
+                //The stored file is referenced by no image, the BlobReaper deletes it unless another image has the same content
+                if (stored.isDone() && !stored.isCompletedExceptionally()) {
+                    blobReaper.enqueue(image.getContentHash());
+                }
+                upload.completeExceptionally(error);
+            } else {
+                upload.complete(result);
+            }
+        });
+        return upload;
+    }
+
+    private void store(Upload upload, Image image, MultipartFile file) {
+        upload.checkNotCancelled();
+        try {
+            imageService.storeImageFile(image, file);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        //The file already existed if an identical image has been uploaded before, the hold keeps it from being reaped while this upload is in progress
+        blobReaper.hold(image.getContentHash());
+    }
+
+    private List<Tag> findOrCreateTags(Upload upload, List<String> tagNames) {
+        upload.checkNotCancelled();
+        return tagService.findOrCreateTags(tagNames);
+    }
+
+    //The date is set at the time of the insert, so that the images are dated in the order they are committed
+    private Image persist(Upload upload, Image image, MultipartFile file, List<Tag> tags) {
+        if (!upload.startPersist()) {
+            throw new CancellationException("The upload has been cancelled");
+        }
+        //The identical file found by the store stage may have been reaped before the hold was taken, it is then stored again
+        if (imageService.getImageFile(image) == null) {
+            try {
+                imageService.storeImageFile(image, file);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }
+        image.setTags(tags);
+        image.setDate(new Date());
+        imageService.uploadImage(image);
+        return image;
+    }
+
+    //The queue of every stage is bounded by the number of uploads in flight, the rejection policy of the pool is hence never applied
+    private ThreadPoolExecutor createStage(String stage, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxInFlight),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "upload-" + stage + "-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Gauge.builder("imagehoster.upload.queue", executor, pool -> pool.getQueue().size())
+                .description("Uploads waiting for a thread of the stage")
+                .tag("stage", stage)
+                .register(meterRegistry);
+        Gauge.builder("imagehoster.upload.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Uploads being processed by the stage")
+                .tag("stage", stage)
+                .register(meterRegistry);
+        return executor;
+    }
+
+    private Timer stageTimer(String stage) {
+        return Timer.builder("imagehoster.upload.stage")
+                .description("Time spent by the uploads in the stage, waiting in its queue excluded")
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+
+    //The future of an upload, which can be cancelled only until the persist stage starts inserting its image
+    private static class Upload extends CompletableFuture<Image> {
+
+        private static final int PENDING = 0;
+        private static final int PERSISTING = 1;
+        private static final int CANCELLED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        //Called by the stages before they start, a cancelled upload skips them
+        void checkNotCancelled() {
+            if (state.get() == CANCELLED) {
+                throw new CancellationException("The upload has been cancelled");
+            }
+        }
+
+        //Called by the persist stage, false if the upload has been cancelled, after which the upload can no longer be cancelled
+        boolean startPersist() {
+            return state.compareAndSet(PENDING, PERSISTING);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return state.compareAndSet(PENDING, CANCELLED) && super.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.BlobStore;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.StoredBlob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One time migration run at the start of the application
+ * Moves the base64 encoded image files still stored in the legacy 'imageFile' column of the 'images' table to the BlobStore
+ * The rows are migrated in small batches so that only a few images are held in memory at a time
+ * The migration is idempotent, a migrated row has its 'imageFile' column cleared and is never picked again
+ */
+@Component
+public class LegacyImageFileMigration implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyImageFileMigration.class);
+
+    private static final int BATCH_SIZE = 10;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    //The pages of a migrated image refer to its file with the new content hash
+    @Autowired
+    private ContentVersionService contentVersionService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!imageRepository.hasLegacyImageFileColumn()) {
+            return;
+        }
+
+        int migrated = 0;
+        List<Object[]> rows = imageRepository.getLegacyImageFiles(BATCH_SIZE);
+        while (!rows.isEmpty()) {
+            for (Object[] row : rows) {
+                Integer imageId = ((Number) row[0]).intValue();
+                byte[] data = Base64.getMimeDecoder().decode((String) row[1]);
+                StoredBlob blob = blobStore.put(new ByteArrayInputStream(data), Long.MAX_VALUE);
+                //The old html files always rendered the images as 'image/jpeg', hence it is the fallback for unknown types
+                String mimeType = ImageService.detectMimeType(new ByteArrayInputStream(data));
+                if (mimeType == null) {
+                    mimeType = "image/jpeg";
+                }
+                imageRepository.completeLegacyImageFileMigration(imageId, blob.getHash(), blob.getSize(), mimeType);
+                contentVersionService.imageChanged(imageId);
+                eventPublisher.publishEvent(new ImageChangedEvent(imageId));
+                migrated++;
+            }
+            rows = imageRepository.getLegacyImageFiles(BATCH_SIZE);
+        }
+
+        if (migrated > 0) {
+            log.info("Moved {} legacy image files to the blob store", migrated);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the scaled down copies (renditions) of the uploaded image files in the background
+ * The gallery pages show the images as tiles, hence they are served with the smallest rendition that fits instead of the full resolution original
+ * Renditions are generated on a bounded pool of worker threads. When the queue is full the request is dropped and the rendition is requested again the next time it is served
+ */
+@Service
+public class RenditionService {
+
+    private static final Logger log = LoggerFactory.getLogger(RenditionService.class);
+
+    //Images larger than this number of pixels are not decoded, a single decoded image would otherwise need gigabytes of heap
+    private static final long MAX_SOURCE_PIXELS = 50_000_000L;
+
+    private static final float JPEG_QUALITY = 0.85f;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    //Widths in pixels of the renditions generated for every image
+    @Value("${imagehoster.renditions.widths:200,800}")
+    private int[] widths;
+
+    @Value("${imagehoster.renditions.threads:2}")
+    private int threads;
+
+    @Value("${imagehoster.renditions.queue-capacity:100}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    //Content hashes for which the renditions are queued or being generated, so that the same image is never queued twice
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        Arrays.sort(widths);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "rendition-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    //The method returns true if renditions of the corresponding width are generated for every image
+    public boolean isRenditionWidth(int width) {
+        return Arrays.binarySearch(widths, width) >= 0;
+    }
+
+    /**
+     * The method queues the generation of all the missing renditions of the image file with the corresponding content hash
+     * The method returns immediately, the renditions are generated on the worker threads
+     *
+     * @param contentHash - The key of the original image file in the BlobStore
+     */
+    public void enqueue(String contentHash) {
+        if (contentHash == null || !pending.add(contentHash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generateRenditions(contentHash);
+                } catch (Exception e) {
+                    log.warn("Could not generate the renditions of image file {}", contentHash, e);
+                } finally {
+                    pending.remove(contentHash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(contentHash);
+            log.debug("Rendition queue is full, skipping image file {}", contentHash);
+        }
+    }
+
+    private void generateRenditions(String contentHash) throws IOException {
+        boolean missing = false;
+        for (int width : widths) {
+            missing |= blobStore.getRendition(contentHash, width) == null;
+        }
+        Resource original = blobStore.get(contentHash);
+        if (!missing || original == null) {
+            return;
+        }
+
+        BufferedImage source = decode(original);
+        if (source == null) {
+            return;
+        }
+
+        String format = source.getColorModel().hasAlpha() ? "png" : "jpg";
+        for (int width : widths) {
+            if (blobStore.getRendition(contentHash, width) == null) {
+                BufferedImage scaled = scale(source, Math.min(width, source.getWidth()));
+                blobStore.putRendition(contentHash, width, format, encode(scaled, format));
+            }
+        }
+    }
+
+    //The method decodes the image file and returns null if the format is not supported by ImageIO or if the image is too large
+    private BufferedImage decode(Resource original) throws IOException {
+        try (InputStream in = original.getInputStream(); ImageInputStream input = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_SOURCE_PIXELS) {
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    //The image is halved with bilinear interpolation until it is less than twice the target width, which gives a far better quality than a single bilinear step
+    private BufferedImage scale(BufferedImage source, int targetWidth) {
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(1, (int) ((long) source.getHeight() * width / source.getWidth()));
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (width > targetWidth);
+        return current;
+    }
+
+    private byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if ("png".equals(format)) {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,336 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.SearchPage;
+import ImageHoster.model.Tag;
+import ImageHoster.repository.ImageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Full text search over the titles, descriptions and tags of the images, served from an inverted index held in memory
+ * The index is built from the database when the application starts and is kept up to date by the ImageService when an image is uploaded, edited or deleted
+ * The images are ranked with BM25, a term found in the title weighs three times and a term found in a tag twice as much as a term found in the description
+ * Every word of the query has to match a word of the image, either exactly or as its prefix. A prefix match scores half of an exact match
+ * The database is only queried to fetch the summaries of the images shown on the requested page of results
+ */
+@Service
+public class SearchService {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchService.class);
+
+    //The words of a text are the runs of letters and digits
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final float TITLE_WEIGHT = 3f;
+
+    private static final float TAG_WEIGHT = 2f;
+
+    private static final float DESCRIPTION_WEIGHT = 1f;
+
+    //BM25 parameters: K1 bounds the effect of repeating a term, B sets how much long texts are penalized
+    private static final double K1 = 1.2;
+
+    private static final double B = 0.75;
+
+    private static final double PREFIX_MATCH_FACTOR = 0.5;
+
+    //A query word is matched as a prefix only if it has at least this number of characters, and with at most MAX_PREFIX_EXPANSIONS indexed words
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+
+    //Words of the query beyond this number are ignored
+    private static final int MAX_QUERY_WORDS = 10;
+
+    private static final int BUILD_BATCH_SIZE = 500;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    //Number of images shown on one page of search results
+    @Value("${imagehoster.search.page-size:20}")
+    private int pageSize;
+
+    //Searches run concurrently under the read lock, the index is changed under the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //The inverted index: for every indexed word, the images containing it and the weighted number of occurrences of the word in each of them
+    //The words are sorted so that the words starting with a prefix are found with a range lookup
+    private final TreeMap<String, Map<Integer, Float>> postings = new TreeMap<>();
+
+    //The indexed words of every image
+    private final Map<Integer, IndexedImage> images = new HashMap<>();
+
+    //Sum of the lengths of all the indexed images, to compute their average length
+    private double totalLength;
+
+    //While the index is being built, the images indexed or removed by the ImageService are not overwritten with the older data read by the build
+    private boolean building = true;
+
+    private final Set<Integer> changedWhileBuilding = new HashSet<>();
+
+    /**
+     * The method builds the index from the titles, descriptions and tags of all the images in the database once the application has started
+     * The images are read in batches ordered by id, searches meanwhile return the images indexed so far
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildIndex() {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try {
+            List<Object[]> rows = imageRepository.getImageTexts(0, BUILD_BATCH_SIZE);
+            while (!rows.isEmpty()) {
+                List<Integer> imageIds = new ArrayList<>();
+                for (Object[] row : rows) {
+                    imageIds.add((Integer) row[0]);
+                }
+                Map<Integer, List<String>> tagNames = new HashMap<>();
+                for (Object[] row : imageRepository.getTagNamesOfImages(imageIds)) {
+                    tagNames.computeIfAbsent((Integer) row[0], imageId -> new ArrayList<>()).add((String) row[1]);
+                }
+
+                lock.writeLock().lock();
+                try {
+                    for (Object[] row : rows) {
+                        Integer imageId = (Integer) row[0];
+                        if (!changedWhileBuilding.contains(imageId)) {
+                            add(imageId, (String) row[1], (String) row[2], tagNames.getOrDefault(imageId, Collections.emptyList()));
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                count += rows.size();
+                rows = imageRepository.getImageTexts(imageIds.get(imageIds.size() - 1), BUILD_BATCH_SIZE);
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                building = false;
+                changedWhileBuilding.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("Indexed {} images for search in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    //The method adds the uploaded or edited image to the index, replacing the previous version of the image
+    public void index(Image image) {
+        List<String> tagNames = new ArrayList<>();
+        if (image.getTags() != null) {
+            for (Tag tag : image.getTags()) {
+                tagNames.add(tag.getName());
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (building) {
+                changedWhileBuilding.add(image.getId());
+            }
+            add(image.getId(), image.getTitle(), image.getDescription(), tagNames);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //The method removes the deleted image from the index
+    public void remove(Integer imageId) {
+        lock.writeLock().lock();
+        try {
+            if (building) {
+                changedWhileBuilding.add(imageId);
+            }
+            removeImage(imageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The method returns one page of the images matching every word of the query, best matching images first
+     * Images with the same score are ordered newest first
+     * Only the ids of the images on the requested page are taken from the index, their summaries are then fetched from the database in a single query
+     *
+     * @param query - The words to be searched
+     * @param page  - The number of the page of results, starting at 1
+     * @return - The requested page of results and the total number of matching images
+     */
+    public SearchPage search(String query, int page) {
+        page = Math.max(1, page);
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(words(query)));
+        if (words.size() > MAX_QUERY_WORDS) {
+            words = words.subList(0, MAX_QUERY_WORDS);
+        }
+        if (words.isEmpty()) {
+            return new SearchPage(query, Collections.emptyList(), page, pageSize, 0);
+        }
+
+        List<Integer> imageIds;
+        int totalHits;
+        lock.readLock().lock();
+        try {
+            Map<Integer, Double> scores = null;
+            for (String word : words) {
+                Map<Integer, Double> wordScores = score(word);
+                if (scores == null) {
+                    scores = wordScores;
+                } else {
+                    scores.keySet().retainAll(wordScores.keySet());
+                    scores.replaceAll((imageId, score) -> score + wordScores.get(imageId));
+                }
+                if (scores.isEmpty()) {
+                    break;
+                }
+            }
+            totalHits = scores.size();
+            imageIds = topImages(scores, (long) (page - 1) * pageSize, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Map<Integer, ImageSummary> summaries = new HashMap<>();
+        for (ImageSummary summary : imageRepository.getImageSummaries(imageIds)) {
+            summaries.put(summary.getId(), summary);
+        }
+        List<ImageSummary> results = new ArrayList<>();
+        for (Integer imageId : imageIds) {
+            //An image deleted since the search is skipped
+            if (summaries.containsKey(imageId)) {
+                results.add(summaries.get(imageId));
+            }
+        }
+        return new SearchPage(query, results, page, pageSize, totalHits);
+    }
+
+    //The BM25 score of every image containing the word, or a word it is the prefix of. An image matching several words with the prefix gets the best of their scores
+    private Map<Integer, Double> score(String word) {
+        Map<Integer, Double> scores = new HashMap<>();
+        int imageCount = images.size();
+        double averageLength = totalLength / Math.max(1, imageCount);
+        SortedMap<String, Map<Integer, Float>> matches = word.length() >= MIN_PREFIX_LENGTH
+                ? postings.subMap(word, word + Character.MAX_VALUE)
+                : postings.subMap(word, true, word, true);
+
+        int expansions = 0;
+        for (Map.Entry<String, Map<Integer, Float>> match : matches.entrySet()) {
+            if (expansions++ == MAX_PREFIX_EXPANSIONS) {
+                break;
+            }
+            double factor = match.getKey().equals(word) ? 1 : PREFIX_MATCH_FACTOR;
+            Map<Integer, Float> imagesWithWord = match.getValue();
+            double idf = Math.log(1 + (imageCount - imagesWithWord.size() + 0.5) / (imagesWithWord.size() + 0.5));
+            for (Map.Entry<Integer, Float> posting : imagesWithWord.entrySet()) {
+                double frequency = posting.getValue();
+                double length = images.get(posting.getKey()).length;
+                double score = factor * idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+                scores.merge(posting.getKey(), score, Math::max);
+            }
+        }
+        return scores;
+    }
+
+    //The ids of the images ranked from offset to offset + limit, found with a heap holding only the best offset + limit images instead of sorting all the matches
+    private static List<Integer> topImages(Map<Integer, Double> scores, long offset, int limit) {
+        if (offset >= scores.size()) {
+            return Collections.emptyList();
+        }
+        Comparator<Map.Entry<Integer, Double>> worstFirst = Map.Entry.<Integer, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey());
+        int size = (int) Math.min(offset + limit, scores.size());
+        PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(size, worstFirst);
+        for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+            if (best.size() < size) {
+                best.add(entry);
+            } else if (worstFirst.compare(entry, best.peek()) > 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+
+        LinkedList<Integer> ranked = new LinkedList<>();
+        while (!best.isEmpty()) {
+            ranked.addFirst(best.poll().getKey());
+        }
+        return new ArrayList<>(ranked.subList((int) offset, ranked.size()));
+    }
+
+    private void add(Integer imageId, String title, String description, Collection<String> tagNames) {
+        removeImage(imageId);
+        Map<String, Float> frequencies = new HashMap<>();
+        addWords(frequencies, title, TITLE_WEIGHT);
+        addWords(frequencies, description, DESCRIPTION_WEIGHT);
+        for (String tagName : tagNames) {
+            addWords(frequencies, tagName, TAG_WEIGHT);
+        }
+        if (frequencies.isEmpty()) {
+            return;
+        }
+
+        float length = 0;
+        for (Map.Entry<String, Float> frequency : frequencies.entrySet()) {
+            postings.computeIfAbsent(frequency.getKey(), word -> new HashMap<>()).put(imageId, frequency.getValue());
+            length += frequency.getValue();
+        }
+        images.put(imageId, new IndexedImage(frequencies.keySet(), length));
+        totalLength += length;
+    }
+
+    private void removeImage(Integer imageId) {
+        IndexedImage image = images.remove(imageId);
+        if (image == null) {
+            return;
+        }
+        totalLength -= image.length;
+        for (String word : image.words) {
+            Map<Integer, Float> imagesWithWord = postings.get(word);
+            imagesWithWord.remove(imageId);
+            if (imagesWithWord.isEmpty()) {
+                postings.remove(word);
+            }
+        }
+    }
+
+    private static void addWords(Map<String, Float> frequencies, String text, float weight) {
+        for (String word : words(text)) {
+            frequencies.merge(word, weight, Float::sum);
+        }
+    }
+
+    //The method splits the text in lowercase words
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : WORD_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static class IndexedImage {
+
+        private final Set<String> words;
+
+        //Weighted number of words of the image
+        private final float length;
+
+        IndexedImage(Set<String> words, float length) {
+            this.words = words;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.Tag;
+import ImageHoster.model.TagPage;
+import ImageHoster.repository.ImageRepository;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of the images having every tag, held in memory, to browse the images by tag without joining the 'images_Tags' table
+ * The images are numbered in the order of their date, and the numbers of the images having a tag are held in a compressed bitmap (RoaringBitmap)
+ * The images having all or any of several tags are found by intersecting or merging their bitmaps, and a page of the newest images is read from the top of the resulting bitmap
+ * An uploaded or edited image gets the next number, as its date is set to the current time. Hence the other images never need to be renumbered on an upload or an edit
+ * The number of an edited or deleted image is left unused. Once more numbers are unused than used, the images are renumbered in the same order without gaps,
+ * so that the numbers, and the array of the ids of the numbered images, never grow beyond a small multiple of the number of images however many edits are made
+ * The index is built from the database when the application starts and is kept up to date by the ImageService when an image is uploaded, edited or deleted
+ */
+@Service
+public class TagIndexService {
+
+    private static final Logger log = LoggerFactory.getLogger(TagIndexService.class);
+
+    private static final int BUILD_BATCH_SIZE = 500;
+
+    //First number given to the images indexed after the application has started, the images loaded from the database at startup get the numbers just below it
+    private static final int FIRST_NEW_NUMBER = 1 << 30;
+
+    //Minimum number of unused numbers before the images are renumbered, so that an index of a few images is not renumbered on every edit
+    private static final int MIN_UNUSED_NUMBERS = 1024;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    //The usage counts of the tags suggested by the TagService are updated as the images are indexed and removed
+    @Autowired
+    private TagService tagService;
+
+    //Number of images shown on one page of the images of a tag
+    @Value("${imagehoster.tags.page-size:20}")
+    private int pageSize;
+
+    //Pages are read concurrently under the read lock, the index is changed under the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //For every tag key, the numbers of the images having the tag
+    private final Map<String, RoaringBitmap> imagesByTag = new HashMap<>();
+
+    //The number and the tag keys of every indexed image
+    private final Map<Integer, IndexedImage> images = new HashMap<>();
+
+    //The id of the image with every number from firstNumber on, 0 for the numbers no longer used since their image has been edited or deleted
+    private int[] imageIds = new int[1024];
+
+    private int firstNumber = FIRST_NEW_NUMBER;
+
+    private int nextNumber = FIRST_NEW_NUMBER;
+
+    //While the index is being built, the images indexed or removed by the ImageService are not overwritten with the older data read by the build
+    private boolean building = true;
+
+    private final Set<Integer> changedWhileBuilding = new HashSet<>();
+
+    /**
+     * The method builds the index from the tags of all the images in the database once the application has started
+     * The ids and dates of all the images are read first to number the images in the order of their date, their tags are then read in batches
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildIndex() {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try {
+            List<Object[]> dated = new ArrayList<>();
+            List<Object[]> rows = imageRepository.getImageDates(0, BUILD_BATCH_SIZE);
+            while (!rows.isEmpty()) {
+                dated.addAll(rows);
+                rows = imageRepository.getImageDates((Integer) rows.get(rows.size() - 1)[0], BUILD_BATCH_SIZE);
+            }
+            dated.sort(Comparator.comparingLong((Object[] row) -> row[1] == null ? Long.MIN_VALUE : ((Date) row[1]).getTime())
+                    .thenComparing(row -> (Integer) row[0]));
+
+            int number;
+            lock.writeLock().lock();
+            try {
+                number = reserveNumbers(dated.size());
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            for (int from = 0; from < dated.size(); from += BUILD_BATCH_SIZE) {
+                List<Object[]> batch = dated.subList(from, Math.min(from + BUILD_BATCH_SIZE, dated.size()));
+                List<Integer> batchIds = new ArrayList<>();
+                for (Object[] row : batch) {
+                    batchIds.add((Integer) row[0]);
+                }
+                Map<Integer, List<String>> tagKeys = new HashMap<>();
+                for (Object[] row : imageRepository.getTagNamesOfImages(batchIds)) {
+                    tagKeys.computeIfAbsent((Integer) row[0], imageId -> new ArrayList<>()).add(keyOf((String) row[1]));
+                }
+
+                lock.writeLock().lock();
+                try {
+                    for (Integer imageId : batchIds) {
+                        if (!changedWhileBuilding.contains(imageId) && tagKeys.containsKey(imageId)) {
+                            add(imageId, number, tagKeys.get(imageId));
+                        }
+                        number++;
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                count += batch.size();
+            }
+
+            lock.writeLock().lock();
+            try {
+                for (RoaringBitmap bitmap : imagesByTag.values()) {
+                    bitmap.runOptimize();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                building = false;
+                changedWhileBuilding.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("Indexed the tags of {} images in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    //The method adds the uploaded or edited image to the index with the next number, replacing the previous version of the image
+    public void index(Image image) {
+        Map<String, String> tagNames = new LinkedHashMap<>();
+        if (image.getTags() != null) {
+            for (Tag tag : image.getTags()) {
+                tagNames.putIfAbsent(keyOf(tag.getName()), tag.getName());
+            }
+        }
+        Collection<String> previousTagKeys;
+        lock.writeLock().lock();
+        try {
+            if (building) {
+                changedWhileBuilding.add(image.getId());
+            }
+            previousTagKeys = removeImage(image.getId());
+            compactIfSparse();
+            if (!tagNames.isEmpty()) {
+                if (nextNumber - firstNumber == imageIds.length) {
+                    imageIds = Arrays.copyOf(imageIds, imageIds.length * 2);
+                }
+                add(image.getId(), nextNumber++, tagNames.keySet());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (String tagKey : previousTagKeys) {
+            tagService.updateTagUsage(tagKey, -1);
+        }
+        for (String tagName : tagNames.values()) {
+            tagService.updateTagUsage(tagName, 1);
+        }
+    }
+
+    //The method removes the deleted image from the index
+    public void remove(Integer imageId) {
+        Collection<String> previousTagKeys;
+        lock.writeLock().lock();
+        try {
+            if (building) {
+                changedWhileBuilding.add(imageId);
+            }
+            previousTagKeys = removeImage(imageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (String tagKey : previousTagKeys) {
+            tagService.updateTagUsage(tagKey, -1);
+        }
+    }
+
+    /**
+     * The method returns one page of the images having all the tags of the first list and at least one of the tags of the second list, newest images first
+     * The bitmaps of the tags are intersected or merged, and only the ids of the images on the requested page are read from the result
+     * The summaries of these images are then fetched from the database in a single query
+     *
+     * @param allTags - Names of the tags every image must have, empty for no such condition
+     * @param anyTags - Names of the tags every image must have at least one of, empty for no such condition
+     * @param page    - The number of the page, starting at 1
+     * @return - The requested page of images and the total number of images having the tags
+     */
+    public TagPage getImages(List<String> allTags, List<String> anyTags, int page) {
+        page = Math.max(1, page);
+        List<Integer> pageIds;
+        int totalHits;
+        lock.readLock().lock();
+        try {
+            RoaringBitmap matches = match(allTags, anyTags);
+            totalHits = matches.getCardinality();
+            pageIds = newest(matches, (long) (page - 1) * pageSize, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Map<Integer, ImageSummary> summaries = new HashMap<>();
+        for (ImageSummary summary : imageRepository.getImageSummaries(pageIds)) {
+            summaries.put(summary.getId(), summary);
+        }
+        List<ImageSummary> results = new ArrayList<>();
+        for (Integer imageId : pageIds) {
+            //An image deleted since its id was read from the index is skipped
+            if (summaries.containsKey(imageId)) {
+                results.add(summaries.get(imageId));
+            }
+        }
+        return new TagPage(allTags, anyTags, results, page, pageSize, totalHits);
+    }
+
+    private RoaringBitmap match(List<String> allTags, List<String> anyTags) {
+        RoaringBitmap all = null;
+        if (!allTags.isEmpty()) {
+            List<RoaringBitmap> bitmaps = new ArrayList<>();
+            for (String tagName : allTags) {
+                RoaringBitmap bitmap = imagesByTag.get(keyOf(tagName));
+                if (bitmap == null) {
+                    return new RoaringBitmap();
+                }
+                bitmaps.add(bitmap);
+            }
+            all = FastAggregation.and(bitmaps.iterator());
+        }
+
+        RoaringBitmap any = null;
+        if (!anyTags.isEmpty()) {
+            List<RoaringBitmap> bitmaps = new ArrayList<>();
+            for (String tagName : anyTags) {
+                RoaringBitmap bitmap = imagesByTag.get(keyOf(tagName));
+                if (bitmap != null) {
+                    bitmaps.add(bitmap);
+                }
+            }
+            any = FastAggregation.or(bitmaps.iterator());
+        }
+
+        if (all == null || any == null) {
+            return all != null ? all : any != null ? any : new RoaringBitmap();
+        }
+        return RoaringBitmap.and(all, any);
+    }
+
+    //The ids of the images ranked from offset to offset + limit from the highest number, i.e. the newest image, down
+    private List<Integer> newest(RoaringBitmap matches, long offset, int limit) {
+        int cardinality = matches.getCardinality();
+        if (offset >= cardinality) {
+            return Collections.emptyList();
+        }
+        int count = (int) Math.min(limit, cardinality - offset);
+        int lowest = matches.select((int) (cardinality - offset - count));
+
+        PeekableIntIterator numbers = matches.getIntIterator();
+        numbers.advanceIfNeeded(lowest);
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(imageIds[numbers.next() - firstNumber]);
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    //The count of the numbers handed out since the last renumbering, whether their image still uses them or not
+    int getNumberRange() {
+        lock.readLock().lock();
+        try {
+            return nextNumber - firstNumber;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The method renumbers the images from firstNumber on, in the order of their numbers and without gaps, once more numbers are unused than used
+     * The bitmaps of the tags are rebuilt with the new numbers and the array of the ids of the images is shrunk to twice the number of images
+     * The cost of a renumbering is proportional to the number of images, and at least as many edits or deletions as there are images are needed to trigger the next one
+     * The numbers reserved by the build of the index are still being filled while it runs, hence the images are never renumbered before it completes
+     */
+    private void compactIfSparse() {
+        int used = nextNumber - firstNumber;
+        int unused = used - images.size();
+        if (building || unused < MIN_UNUSED_NUMBERS || unused <= images.size()) {
+            return;
+        }
+        int[] compacted = new int[Math.max(images.size() * 2, 1024)];
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            if (imageIds[i] != 0) {
+                compacted[count++] = imageIds[i];
+            }
+        }
+        Map<Integer, IndexedImage> indexed = new HashMap<>(images);
+        imagesByTag.clear();
+        images.clear();
+        imageIds = compacted;
+        nextNumber = firstNumber + count;
+        for (int i = 0; i < count; i++) {
+            add(compacted[i], firstNumber + i, indexed.get(compacted[i]).tagKeys);
+        }
+        for (RoaringBitmap bitmap : imagesByTag.values()) {
+            bitmap.runOptimize();
+        }
+    }
+
+    //The numbers below firstNumber are reserved for the images loaded by the build, the numbers in use are moved to the end of the grown array
+    private int reserveNumbers(int count) {
+        int used = nextNumber - firstNumber;
+        int[] grown = new int[count + Math.max(used * 2, 1024)];
+        System.arraycopy(imageIds, 0, grown, count, used);
+        imageIds = grown;
+        firstNumber -= count;
+        return firstNumber;
+    }
+
+    private void add(Integer imageId, int number, Collection<String> tagKeys) {
+        imageIds[number - firstNumber] = imageId;
+        for (String tagKey : tagKeys) {
+            imagesByTag.computeIfAbsent(tagKey, key -> new RoaringBitmap()).add(number);
+        }
+        images.put(imageId, new IndexedImage(number, tagKeys));
+    }
+
+    //The method returns the keys of the tags the removed image had
+    private Collection<String> removeImage(Integer imageId) {
+        IndexedImage image = images.remove(imageId);
+        if (image == null) {
+            return Collections.emptyList();
+        }
+        imageIds[image.number - firstNumber] = 0;
+        for (String tagKey : image.tagKeys) {
+            RoaringBitmap bitmap = imagesByTag.get(tagKey);
+            bitmap.remove(image.number);
+            if (bitmap.isEmpty()) {
+                imagesByTag.remove(tagKey);
+            }
+        }
+        return image.tagKeys;
+    }
+
+    private static String keyOf(String tagName) {
+        return TagService.keyOf(TagService.normalizeName(tagName));
+    }
+
+    private static class IndexedImage {
+
+        private final int number;
+
+        private final Collection<String> tagKeys;
+
+        IndexedImage(int number, Collection<String> tagKeys) {
+            this.number = number;
+            this.tagKeys = tagKeys;
+        }
+    }
+}
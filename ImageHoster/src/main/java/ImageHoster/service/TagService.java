@@ -1,14 +1,32 @@
 package ImageHoster.service;
 
 import ImageHoster.model.Tag;
+import ImageHoster.model.TagSuggestion;
 import ImageHoster.repository.TagRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
 
 @Service
 public class TagService {
 
+    private static final int LOCK_STRIPES = 64;
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     /**
      * This class needs an object of TagRepository class
      * One way is to simply declare the object of TagRepository class in this class using new operator
@@ -20,13 +38,251 @@ public class TagService {
     @Autowired
     private TagRepository tagRepository;
 
-    //The method calls the findTag() method in the Repository and passes the title of the tag which is to be retrieved from the database
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //Maximum number of tags held in the tag cache, the least frequently used tags are evicted beyond it
+    @Value("${imagehoster.tags.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    //Number of seconds a name is remembered as not being the name of any tag
+    @Value("${imagehoster.tags.cache.negative-ttl-seconds:30}")
+    private long negativeTtlSeconds;
+
+    //Tags by the lower case name (the key of the tag), in front of the 'tags' table
+    //Tags are never renamed nor deleted once the application has started, hence the cached tags never become stale
+    private Cache<String, Tag> tagCache;
+
+    //Lower case names recently looked up and not found in the 'tags' table, forgotten after a short time since another node may create the tag meanwhile
+    private Cache<String, Boolean> missingTagCache;
+
+    //The tag names ranked by usage, suggested while the tags of an image are typed
+    private final TagSuggestionIndex suggestionIndex = new TagSuggestionIndex();
+
+    //Locks serializing the creation of tags with the same name in this process, the lock of a name is the stripe its lower case name hashes to
+    private final ReentrantLock[] creationLocks = new ReentrantLock[LOCK_STRIPES];
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            creationLocks[i] = new ReentrantLock();
+        }
+        tagCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .build();
+        missingTagCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(negativeTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        //Publishes the hits, misses and evictions of the caches as the 'cache.*' metrics
+        CaffeineCacheMetrics.monitor(meterRegistry, tagCache, "tags");
+        CaffeineCacheMetrics.monitor(meterRegistry, missingTagCache, "missingTags");
+    }
+
+    //The tag cache is filled with the most used tags once the application has started
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpCache() {
+        for (Tag tag : tagRepository.findMostUsedTags((int) Math.min(cacheMaxSize, Integer.MAX_VALUE))) {
+            cacheTag(tag);
+        }
+    }
+
+    //The suggestion index is filled with all the tags and their usage counts once the application has started, it is then kept up to date by the TagIndexService
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildSuggestionIndex() {
+        Map<String, Integer> usage = new HashMap<>();
+        for (Object[] row : tagRepository.getTagUsage()) {
+            usage.put((String) row[0], ((Number) row[1]).intValue());
+        }
+        suggestionIndex.addAll(usage);
+    }
+
+    /**
+     * The method returns the most used tags whose name starts with the received prefix, ignoring the case, most used first
+     * The tags are served from memory, the method never queries the database
+     *
+     * @param prefix - The first characters of the tag name, empty for the most used tags of all
+     * @param limit  - Maximum number of tags to be returned
+     * @return - The suggested tags along with their number of images
+     */
+    public List<TagSuggestion> suggestTags(String prefix, int limit) {
+        return suggestionIndex.suggest(keyOf(normalizeName(prefix)), limit);
+    }
+
+    //The method adds the received number to the number of images having the tag, as ranked by suggestTags()
+    public void updateTagUsage(String tagName, int delta) {
+        suggestionIndex.updateUsage(tagName, delta);
+    }
+
+    /**
+     * The method returns the tag with the received name from the tag cache
+     * If the name is not cached the method calls the findTag() method in the Repository and caches the result, including the absence of the tag
+     *
+     * @param title - The name of the tag which is to be retrieved
+     * @return - The tag and null if no tag has this name
+     */
     public Tag getTagByName(String title) {
-        return tagRepository.findTag(title);
+        String name = normalizeName(title);
+        String key = keyOf(name);
+        Tag tag = tagCache.getIfPresent(key);
+        if (tag != null || missingTagCache.getIfPresent(key) != null) {
+            return tag;
+        }
+
+        tag = tagRepository.findTag(name);
+        if (tag != null) {
+            cacheTag(tag);
+        } else {
+            missingTagCache.put(key, Boolean.TRUE);
+        }
+        return tag;
     }
 
-    //The method calls the createTag() method in the Repository and passes the tag to be persisted in the database
+    //The method creates the tag unless a tag with the same name already exists, and returns the tag stored in the database
     public Tag createTag(Tag tag) {
-        return tagRepository.createTag(tag);
+        return findOrCreateTags(Collections.singletonList(tag.getName())).get(0);
+    }
+
+    //The method splits the string of the tags separated by a comma, as typed in the forms or sent in the URLs, into the list of their trimmed names, the empty names are dropped
+    public static List<String> splitTagNames(String tagNames) {
+        StringTokenizer st = new StringTokenizer(tagNames, ",");
+        List<String> names = new ArrayList<String>();
+
+        while (st.hasMoreTokens()) {
+            String tagName = st.nextToken().trim();
+            if (!tagName.isEmpty()) {
+                names.add(tagName);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * The method returns the tags with the received names and persists the tags which do not exist yet in the database
+     * Names are compared after normalization: surrounding white space is removed, inner white space is collapsed to a single space, and the case is ignored
+     * The tags are first looked up in the tag cache, the names missing from the cache are then fetched with a single query and all the missing tags are inserted in a single batch
+     * The database compares the names with its own lower(), which may differ from the key computed here for a few characters. A tag found by the database under another key is then fetched on its own
+     * The missing tags are inserted with 'INSERT ... ON CONFLICT DO NOTHING' backed by a unique index on the lower case names, hence concurrent uploads never create the same tag twice
+     * Uploads of this process creating the same new tag wait on a striped lock of the name, so that only one of them goes to the database to insert it
+     * A name received more than once yields a single tag
+     *
+     * @param tagNames - The names of the tags
+     * @return - The list of the tags, in the order of the received names
+     * @throws IllegalStateException - If a tag can not be found right after its insert
+     */
+    public List<Tag> findOrCreateTags(List<String> tagNames) {
+        //Maps the lower case name of each tag to the name it is created with if it does not exist yet
+        Map<String, String> names = new LinkedHashMap<>();
+        for (String tagName : tagNames) {
+            String name = normalizeName(tagName);
+            if (!name.isEmpty()) {
+                names.putIfAbsent(keyOf(name), name);
+            }
+        }
+        if (names.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<String, Tag> tagsByKey = new HashMap<>(tagCache.getAllPresent(names.keySet()));
+
+        Set<String> missingKeys = new HashSet<>(names.keySet());
+        missingKeys.removeAll(tagsByKey.keySet());
+        //The names known to be missing are not looked up again, they are created right away
+        Set<String> uncachedKeys = new HashSet<>(missingKeys);
+        uncachedKeys.removeAll(missingTagCache.getAllPresent(missingKeys).keySet());
+        if (!uncachedKeys.isEmpty()) {
+            addTags(tagsByKey, tagRepository.findTags(namesOf(names, uncachedKeys)));
+            missingKeys.removeAll(tagsByKey.keySet());
+        }
+        if (!missingKeys.isEmpty()) {
+            List<ReentrantLock> locks = locksOf(missingKeys);
+            locks.forEach(ReentrantLock::lock);
+            try {
+                //Another upload may have created some of the tags while this one was waiting for the locks
+                addTags(tagsByKey, tagRepository.findTags(namesOf(names, missingKeys)));
+                missingKeys.removeAll(tagsByKey.keySet());
+                if (!missingKeys.isEmpty()) {
+                    List<String> missingNames = namesOf(names, missingKeys);
+                    tagRepository.insertTagsIfAbsent(missingNames);
+                    addTags(tagsByKey, tagRepository.findTags(missingNames));
+                    missingKeys.removeAll(tagsByKey.keySet());
+                }
+                //The tags the database found under a name whose key differs from the key computed here, they are fetched and cached under the requested key
+                for (String key : missingKeys) {
+                    Tag tag = tagRepository.findTag(names.get(key));
+                    if (tag == null) {
+                        throw new IllegalStateException("The tag '" + names.get(key) + "' was not found after its insert");
+                    }
+                    tagsByKey.put(key, tag);
+                    cacheTag(key, tag);
+                }
+            } finally {
+                locks.forEach(ReentrantLock::unlock);
+            }
+        }
+
+        List<Tag> tags = new ArrayList<>();
+        for (String key : names.keySet()) {
+            tags.add(tagsByKey.get(key));
+        }
+        return tags;
+    }
+
+    //The tags fetched from the database are added to the map and written through to the tag cache and to the suggestion index
+    //A tag just created, or created by another node, is hence suggested right away, with no image yet
+    private void addTags(Map<String, Tag> tagsByKey, List<Tag> tags) {
+        Map<String, Integer> usage = new HashMap<>();
+        for (Tag tag : tags) {
+            tagsByKey.putIfAbsent(keyOf(normalizeName(tag.getName())), tag);
+            cacheTag(tag);
+            usage.put(tag.getName(), 0);
+        }
+        suggestionIndex.addAll(usage);
+    }
+
+    //A detached copy of the tag is cached, the entity itself belongs to the persistence context of the current request
+    private void cacheTag(Tag tag) {
+        cacheTag(keyOf(normalizeName(tag.getName())), tag);
+    }
+
+    private void cacheTag(String key, Tag tag) {
+        Tag copy = new Tag(tag.getName());
+        copy.setId(tag.getId());
+        tagCache.put(key, copy);
+        missingTagCache.invalidate(key);
+    }
+
+    //The names to be sent to the database for the received keys
+    private static List<String> namesOf(Map<String, String> names, Collection<String> keys) {
+        List<String> keyNames = new ArrayList<>();
+        for (String key : keys) {
+            keyNames.add(names.get(key));
+        }
+        return keyNames;
+    }
+
+    //The locks are returned in the order of their stripe, so that two uploads locking overlapping sets of names can not deadlock
+    private List<ReentrantLock> locksOf(Set<String> keys) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (String key : keys) {
+            stripes.add(Math.floorMod(key.hashCode(), LOCK_STRIPES));
+        }
+        List<ReentrantLock> locks = new ArrayList<>();
+        for (int stripe : stripes) {
+            locks.add(creationLocks[stripe]);
+        }
+        return locks;
+    }
+
+    //The method removes the surrounding white space of a tag name and collapses its inner white space to a single space
+    static String normalizeName(String tagName) {
+        return tagName == null ? "" : WHITESPACE.matcher(tagName.trim()).replaceAll(" ");
+    }
+
+    //Two tags are the same if their normalized names are equal ignoring the case, this is the key of the unique index on the 'tags' table
+    static String keyOf(String normalizedName) {
+        return normalizedName.toLowerCase(Locale.ROOT);
     }
 }
@@ -0,0 +1,183 @@
+package ImageHoster.service;
+
+import ImageHoster.model.TagSuggestion;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Prefix index of the tag names ranked by the number of images having the tag, answering the autocomplete of the tag fields of the upload and edit forms
+ * The keys of the tags (their lower case names) are held in a sorted array, hence the tags starting with a prefix are a contiguous range found with two binary searches
+ * A segment tree over the usage counts, in the order of the keys, returns the most used tag of any range in logarithmic time
+ * The k most used tags of a range are then found by splitting the range around its most used tag k times, whatever the number of tags in the range
+ * Adding tags rebuilds the arrays, as tags are rarely created compared to the number of lookups. Changing the usage count of a tag only updates the tree
+ */
+class TagSuggestionIndex {
+
+    //Lookups run concurrently under the read lock, the index is changed under the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //The keys of the tags in ascending order, and the name and the usage count of the tag at the same position
+    private String[] keys = new String[0];
+
+    private String[] names = new String[0];
+
+    private int[] counts = new int[0];
+
+    //Number of leaves of the segment tree, the smallest power of two not less than the number of tags
+    private int leaves = 1;
+
+    //The position of the most used tag of the range covered by every node of the segment tree, -1 for an empty range
+    //The root is node 1, the children of node i are the nodes 2i and 2i+1, and the leaf of the tag at position p is the node leaves + p
+    private int[] tree = {-1, -1};
+
+    /**
+     * The method adds the tags whose keys are not in the index yet, with their usage count
+     *
+     * @param usage - The usage count of every tag name
+     */
+    void addAll(Map<String, Integer> usage) {
+        lock.writeLock().lock();
+        try {
+            TreeMap<String, Object[]> added = new TreeMap<>();
+            for (Map.Entry<String, Integer> entry : usage.entrySet()) {
+                String key = TagService.keyOf(TagService.normalizeName(entry.getKey()));
+                if (!key.isEmpty() && Arrays.binarySearch(keys, key) < 0) {
+                    added.putIfAbsent(key, new Object[]{TagService.normalizeName(entry.getKey()), entry.getValue()});
+                }
+            }
+            if (!added.isEmpty()) {
+                merge(added);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The method adds the received number to the usage count of the tag, the tag is added to the index if it is not in it yet
+     *
+     * @param tagName - The name of the tag
+     * @param delta   - The number of images which got the tag, negative for the images which lost it
+     */
+    void updateUsage(String tagName, int delta) {
+        String key = TagService.keyOf(TagService.normalizeName(tagName));
+        lock.writeLock().lock();
+        try {
+            int position = Arrays.binarySearch(keys, key);
+            if (position < 0) {
+                TreeMap<String, Object[]> added = new TreeMap<>();
+                added.put(key, new Object[]{TagService.normalizeName(tagName), Math.max(0, delta)});
+                merge(added);
+                return;
+            }
+            counts[position] = Math.max(0, counts[position] + delta);
+            for (int node = (leaves + position) / 2; node >= 1; node /= 2) {
+                tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The method returns the most used tags whose key starts with the received prefix, most used first
+     * Tags used by the same number of images are ordered by key
+     *
+     * @param prefix - The lower case prefix, empty for the most used tags of all
+     * @param limit  - Maximum number of tags to be returned
+     * @return - The suggested tags
+     */
+    List<TagSuggestion> suggest(String prefix, int limit) {
+        List<TagSuggestion> suggestions = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            int from = lowerBound(prefix);
+            int to = lowerBound(prefix + Character.MAX_VALUE);
+            //Ranges of positions still to be looked at, along with the position of their most used tag, the range holding the most used tag first
+            PriorityQueue<int[]> ranges = new PriorityQueue<>(Math.max(1, 2 * limit), (a, b) -> better(a[0], b[0]) == a[0] ? -1 : 1);
+            if (from < to) {
+                ranges.add(new int[]{mostUsed(from, to), from, to});
+            }
+            while (suggestions.size() < limit && !ranges.isEmpty()) {
+                int[] range = ranges.poll();
+                int position = range[0];
+                suggestions.add(new TagSuggestion(names[position], counts[position]));
+                if (range[1] < position) {
+                    ranges.add(new int[]{mostUsed(range[1], position), range[1], position});
+                }
+                if (position + 1 < range[2]) {
+                    ranges.add(new int[]{mostUsed(position + 1, range[2]), position + 1, range[2]});
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return suggestions;
+    }
+
+    //The position of the most used tag between the positions from (inclusive) and to (exclusive)
+    private int mostUsed(int from, int to) {
+        int best = -1;
+        for (int left = from + leaves, right = to + leaves; left < right; left /= 2, right /= 2) {
+            if ((left & 1) == 1) {
+                best = better(best, tree[left++]);
+            }
+            if ((right & 1) == 1) {
+                best = better(best, tree[--right]);
+            }
+        }
+        return best;
+    }
+
+    //Of two positions, the position of the tag used by more images, or of the tag with the lower key if both are used by the same number of images
+    private int better(int a, int b) {
+        if (a < 0 || b < 0) {
+            return a < 0 ? b : a;
+        }
+        return counts[a] > counts[b] || (counts[a] == counts[b] && a < b) ? a : b;
+    }
+
+    private int lowerBound(String key) {
+        int position = Arrays.binarySearch(keys, key);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    //The method merges the added tags, sorted by key, into the arrays and rebuilds the segment tree
+    private void merge(TreeMap<String, Object[]> added) {
+        int size = keys.length + added.size();
+        String[] mergedKeys = new String[size];
+        String[] mergedNames = new String[size];
+        int[] mergedCounts = new int[size];
+        int i = 0;
+        int position = 0;
+        for (Map.Entry<String, Object[]> entry : added.entrySet()) {
+            while (i < keys.length && keys[i].compareTo(entry.getKey()) < 0) {
+                mergedKeys[position] = keys[i];
+                mergedNames[position] = names[i];
+                mergedCounts[position++] = counts[i++];
+            }
+            mergedKeys[position] = entry.getKey();
+            mergedNames[position] = (String) entry.getValue()[0];
+            mergedCounts[position++] = ((Number) entry.getValue()[1]).intValue();
+        }
+        while (i < keys.length) {
+            mergedKeys[position] = keys[i];
+            mergedNames[position] = names[i];
+            mergedCounts[position++] = counts[i++];
+        }
+        keys = mergedKeys;
+        names = mergedNames;
+        counts = mergedCounts;
+
+        leaves = Integer.highestOneBit(Math.max(1, size - 1)) * 2;
+        tree = new int[2 * leaves];
+        Arrays.fill(tree, -1);
+        for (int p = 0; p < size; p++) {
+            tree[leaves + p] = p;
+        }
+        for (int node = leaves - 1; node >= 1; node--) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+}
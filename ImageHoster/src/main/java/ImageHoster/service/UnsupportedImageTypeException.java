@@ -0,0 +1,18 @@
+package ImageHoster.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an uploaded file is not a JPEG, PNG, GIF or WebP image, whatever content type the client sent along with it
+ * Nothing is stored in that case and the upload is answered with '400 Bad Request'
+ */
+@ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Only JPEG, PNG, GIF and WebP images can be uploaded")
+public class UnsupportedImageTypeException extends IOException {
+
+    public UnsupportedImageTypeException() {
+        super("Only JPEG, PNG, GIF and WebP images can be uploaded");
+    }
+}
@@ -0,0 +1,76 @@
+-- Schema of the ImageHoster database as it was created by hbm2ddl before the migrations existed
+-- Every statement is idempotent: a database created by hbm2ddl is baselined at version 0 and this migration then only adds what it is missing
+
+CREATE TABLE IF NOT EXISTS user_profile (
+    id            integer NOT NULL,
+    email_address varchar(255),
+    full_name     varchar(255),
+    mobile_number varchar(255),
+    CONSTRAINT user_profile_pkey PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS users (
+    id         integer NOT NULL,
+    password   varchar(255),
+    username   varchar(255),
+    profile_id integer,
+    CONSTRAINT users_pkey PRIMARY KEY (id),
+    CONSTRAINT fko47sw84ajr24vfq4ccoha1256 FOREIGN KEY (profile_id) REFERENCES user_profile (id)
+);
+
+CREATE TABLE IF NOT EXISTS images (
+    id           integer NOT NULL,
+    content_hash varchar(64),
+    date         timestamp,
+    description  varchar(255),
+    mime_type    varchar(255),
+    size         bigint,
+    title        varchar(255),
+    user_id      integer,
+    CONSTRAINT images_pkey PRIMARY KEY (id),
+    CONSTRAINT fk13ljqfrfwbyvnsdhihwta8cpr FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+-- Added when the image files moved to the blob store, the bytes of older images are moved out of the legacy 'imagefile' column by the LegacyImageFileMigration
+ALTER TABLE images ADD COLUMN IF NOT EXISTS content_hash varchar(64);
+ALTER TABLE images ADD COLUMN IF NOT EXISTS size bigint;
+ALTER TABLE images ADD COLUMN IF NOT EXISTS mime_type varchar(255);
+
+CREATE TABLE IF NOT EXISTS tags (
+    id   integer NOT NULL,
+    name varchar(255),
+    CONSTRAINT tags_pkey PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS images_tags (
+    images_id integer NOT NULL,
+    tags_id   integer NOT NULL,
+    CONSTRAINT fkgsj11feci341byyrilwywpe47 FOREIGN KEY (images_id) REFERENCES images (id),
+    CONSTRAINT fktr5ixprfwwbq8u50gj470tkgv FOREIGN KEY (tags_id) REFERENCES tags (id)
+);
+
+CREATE TABLE IF NOT EXISTS comment (
+    id          integer NOT NULL,
+    createddate date,
+    text        text,
+    image_id    integer,
+    user_id     integer,
+    CONSTRAINT comment_pkey PRIMARY KEY (id),
+    CONSTRAINT fk2wbasgbm7byemseqmkrwfd8y8 FOREIGN KEY (image_id) REFERENCES images (id),
+    CONSTRAINT fkqysgp2agdkw3p9djmg55411pn FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+-- One id sequence per table, used by the PooledSequenceGenerator
+-- Rows created before these sequences existed took their ids from the shared 'hibernate_sequence', hence each sequence is moved past the largest id of its table
+-- The increment of the sequences is set to the configured allocation size by afterMigrate.sql
+CREATE SEQUENCE IF NOT EXISTS user_profile_id_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS users_id_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS images_id_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS tags_id_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS comment_id_seq INCREMENT BY 50;
+
+SELECT setval('user_profile_id_seq', t.max_id) FROM (SELECT max(id) AS max_id FROM user_profile) t WHERE t.max_id >= (SELECT last_value FROM user_profile_id_seq);
+SELECT setval('users_id_seq', t.max_id) FROM (SELECT max(id) AS max_id FROM users) t WHERE t.max_id >= (SELECT last_value FROM users_id_seq);
+SELECT setval('images_id_seq', t.max_id) FROM (SELECT max(id) AS max_id FROM images) t WHERE t.max_id >= (SELECT last_value FROM images_id_seq);
+SELECT setval('tags_id_seq', t.max_id) FROM (SELECT max(id) AS max_id FROM tags) t WHERE t.max_id >= (SELECT last_value FROM tags_id_seq);
+SELECT setval('comment_id_seq', t.max_id) FROM (SELECT max(id) AS max_id FROM comment) t WHERE t.max_id >= (SELECT last_value FROM comment_id_seq);
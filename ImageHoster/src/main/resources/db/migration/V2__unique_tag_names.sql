@@ -0,0 +1,23 @@
+-- Tags created before the unique index existed may have the same name more than once, in the same or in a different case
+-- The oldest tag (lowest id) of each name is kept, the images of the other tags are moved to it and the other tags are deleted
+-- The table is locked against writes meanwhile, so that no duplicate can be inserted between the merge and the creation of the index
+
+LOCK TABLE tags IN SHARE ROW EXCLUSIVE MODE;
+
+INSERT INTO images_tags (images_id, tags_id)
+SELECT DISTINCT it.images_id, d.keep_id
+FROM images_tags it
+         JOIN (SELECT id, min(id) OVER (PARTITION BY lower(name)) AS keep_id FROM tags) d ON d.id = it.tags_id
+WHERE d.id <> d.keep_id
+  AND NOT EXISTS(SELECT 1 FROM images_tags x WHERE x.images_id = it.images_id AND x.tags_id = d.keep_id);
+
+DELETE FROM images_tags it
+USING (SELECT id, min(id) OVER (PARTITION BY lower(name)) AS keep_id FROM tags) d
+WHERE d.id = it.tags_id AND d.id <> d.keep_id;
+
+DELETE FROM tags t
+USING (SELECT id, min(id) OVER (PARTITION BY lower(name)) AS keep_id FROM tags) d
+WHERE d.id = t.id AND d.id <> d.keep_id;
+
+-- A name is stored only once whatever its case, the tag lookups and the 'INSERT ... ON CONFLICT' of the TagRepository use this index
+CREATE UNIQUE INDEX IF NOT EXISTS tags_lower_name_key ON tags (lower(name));
@@ -0,0 +1,22 @@
+-- Indexes of the queries run on every request, built without locking the tables against writes
+-- CREATE INDEX CONCURRENTLY can not run in a transaction, hence this migration holds nothing else
+-- The tag lookups by name use the unique index on lower(name) created by V2
+
+-- UserRepository.checkUser()
+CREATE INDEX CONCURRENTLY IF NOT EXISTS users_username_idx ON users (username);
+
+-- ImageRepository.getImageByTitle()
+CREATE INDEX CONCURRENTLY IF NOT EXISTS images_title_idx ON images (title);
+
+-- The gallery feed, ordered and paged on (date, id) by ImageRepository.getImagesBefore() and getImagesAfter()
+CREATE INDEX CONCURRENTLY IF NOT EXISTS images_date_id_idx ON images (date, id);
+
+-- The images of a user, and the foreign key checks when a user is deleted
+CREATE INDEX CONCURRENTLY IF NOT EXISTS images_user_id_idx ON images (user_id);
+
+-- The comments of an image on the image page
+CREATE INDEX CONCURRENTLY IF NOT EXISTS comment_image_id_idx ON comment (image_id);
+
+-- The tags of an image, and the images of a tag
+CREATE INDEX CONCURRENTLY IF NOT EXISTS images_tags_images_id_idx ON images_tags (images_id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS images_tags_tags_id_idx ON images_tags (tags_id);
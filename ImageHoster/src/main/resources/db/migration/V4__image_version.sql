@@ -0,0 +1,2 @@
+-- Version of each image, incremented by every update, an edit based on an older version is rejected instead of overwriting the changes made meanwhile
+ALTER TABLE images ADD COLUMN IF NOT EXISTS version integer NOT NULL DEFAULT 0;
@@ -0,0 +1,3 @@
+-- The BlobReaper counts the images referencing an image file before deleting it from the blob store
+-- CREATE INDEX CONCURRENTLY can not run in a transaction, hence this migration holds nothing else
+CREATE INDEX CONCURRENTLY IF NOT EXISTS images_content_hash_idx ON images (content_hash);
@@ -0,0 +1,9 @@
+-- Version of the content shown on the pages, shared by all the nodes of the application to answer conditional requests
+-- One row per stamped content: 'feed' for the feed of all the images and 'image:<id>' for the page of an image, incremented by every write of the content
+-- The row of a deleted image is kept, so that a page of the image cached before its deletion is never validated again
+CREATE TABLE IF NOT EXISTS content_versions
+(
+    name     varchar(32) PRIMARY KEY,
+    version  bigint                   NOT NULL,
+    modified timestamp with time zone NOT NULL
+);
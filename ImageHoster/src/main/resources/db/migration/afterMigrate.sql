@@ -0,0 +1,7 @@
+-- Run after every migration, hence at every start of the application
+-- The increment of the id sequences must be the allocation size of the PooledSequenceGenerator, which hands out the ids of a block assuming the sequence advances by exactly this much
+ALTER SEQUENCE user_profile_id_seq INCREMENT BY ${idAllocationSize};
+ALTER SEQUENCE users_id_seq INCREMENT BY ${idAllocationSize};
+ALTER SEQUENCE images_id_seq INCREMENT BY ${idAllocationSize};
+ALTER SEQUENCE tags_id_seq INCREMENT BY ${idAllocationSize};
+ALTER SEQUENCE comment_id_seq INCREMENT BY ${idAllocationSize};
@@ -0,0 +1,62 @@
+// Suggests the most used tags starting with the tag being typed in the tags field of the upload and edit forms
+// The tags are separated by commas and the suggestions are for the last one, clicking a suggestion replaces it
+(function () {
+    var field = document.getElementById('tags');
+    var list = document.getElementById('tag-suggestions');
+    if (!field || !list) {
+        return;
+    }
+    var timer = null;
+    var latest = 0;
+
+    function lastTag() {
+        var tags = field.value.split(',');
+        return tags[tags.length - 1].trim();
+    }
+
+    function show(suggestions) {
+        list.innerHTML = '';
+        suggestions.forEach(function (tag) {
+            var button = document.createElement('button');
+            button.type = 'button';
+            button.textContent = tag.name + ' (' + tag.count + ')';
+            button.addEventListener('click', function () {
+                var tags = field.value.split(',');
+                tags[tags.length - 1] = tag.name;
+                field.value = tags.map(function (t) {
+                    return t.trim();
+                }).join(',') + ',';
+                list.innerHTML = '';
+                field.focus();
+            });
+            var item = document.createElement('li');
+            item.className = 'dib mr2';
+            item.appendChild(button);
+            list.appendChild(item);
+        });
+    }
+
+    // The request waits for a short pause in the typing, and the answer to an older request is ignored
+    field.addEventListener('input', function () {
+        clearTimeout(timer);
+        var prefix = lastTag();
+        if (!prefix) {
+            list.innerHTML = '';
+            return;
+        }
+        timer = setTimeout(function () {
+            var request = ++latest;
+            fetch('/tags/suggest?prefix=' + encodeURIComponent(prefix), {credentials: 'same-origin'})
+                .then(function (response) {
+                    return response.json();
+                })
+                .then(function (suggestions) {
+                    if (request === latest) {
+                        show(suggestions);
+                    }
+                })
+                .catch(function () {
+                });
+        }, 100);
+    });
+})();
@@ -0,0 +1,43 @@
+package ImageHoster.config;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class CssPurgerTest {
+
+    private static final String CSS = "/*! license */\n"
+            + "/* dropped comment */\n"
+            + "html { line-height: 1.15 }\n"
+            + ".dib { display: inline-block }\n"
+            + ".dn, .mr2 { margin-right: .5rem }\n"
+            + ".link:hover, .dim:hover { opacity: .5 }\n"
+            + "a[href$=\".pdf\"] { color: red }\n"
+            + "@media screen and (min-width: 30em) {\n"
+            + "  .f5-ns { font-size: 1rem }\n"
+            + "  .w-25-ns { width: 25% }\n"
+            + "}\n"
+            + "@media print { .dn-p { display: none } }\n"
+            + "@font-face { font-family: x; src: url(\"x.woff\") }\n";
+
+    //This test checks that only the rules using the received class names or no class at all are kept, along with the license comments and the other at-rules
+    @Test
+    public void purgeUnusedRules() {
+        String purged = CssPurger.purge(CSS, new HashSet<>(Arrays.asList("dib", "mr2", "link", "f5-ns")));
+
+        assertThat(purged, equalTo("/*! license */\n"
+                + "html{line-height: 1.15}\n"
+                + ".dib{display: inline-block}\n"
+                + ".mr2{margin-right: .5rem}\n"
+                + ".link:hover{opacity: .5}\n"
+                + "a[href$=\".pdf\"]{color: red}\n"
+                + "@media screen and (min-width: 30em) {\n"
+                + ".f5-ns{font-size: 1rem}\n"
+                + "}\n"
+                + "@font-face { font-family: x; src: url(\"x.woff\") }\n"));
+    }
+}
@@ -0,0 +1,49 @@
+package ImageHoster.config;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.Assert.assertNotNull;
+
+public class DatabaseAccessGateTest {
+
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        DataSource target = Mockito.mock(DataSource.class);
+        Mockito.when(target.getConnection()).thenAnswer(invocation -> Mockito.mock(Connection.class));
+
+        dataSource = new DatabaseAccessGate(2, 50).limit(target);
+    }
+
+    //This test checks that no more connections than permits are handed out, the next request failing once it has waited for the timeout
+    @Test(expected = SQLTransientConnectionException.class)
+    public void getConnectionWithoutPermit() throws Exception {
+        dataSource.getConnection();
+        dataSource.getConnection();
+        dataSource.getConnection();
+    }
+
+    //This test checks that closing a connection gives its permit back, once even if the connection is closed twice
+    @Test
+    public void closeGivesPermitBack() throws Exception {
+        Connection first = dataSource.getConnection();
+        dataSource.getConnection();
+        first.close();
+        first.close();
+
+        assertNotNull(dataSource.getConnection());
+        try {
+            dataSource.getConnection();
+        } catch (SQLTransientConnectionException e) {
+            return;
+        }
+        throw new AssertionError("A connection closed twice gave two permits back");
+    }
+}
@@ -0,0 +1,87 @@
+package ImageHoster.config;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class SqlInspectorTest {
+
+    private SqlInspector sqlInspector;
+
+    private DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        ResultSet resultSet = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSet.next()).thenReturn(true, true, false);
+        PreparedStatement preparedStatement = Mockito.mock(PreparedStatement.class);
+        Mockito.when(preparedStatement.executeQuery()).thenReturn(resultSet);
+        Statement statement = Mockito.mock(Statement.class);
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(preparedStatement);
+        Mockito.when(connection.createStatement()).thenReturn(statement);
+        DataSource target = Mockito.mock(DataSource.class);
+        Mockito.when(target.getConnection()).thenReturn(connection);
+
+        sqlInspector = new SqlInspector(5, false);
+        dataSource = sqlInspector.inspect(target);
+    }
+
+    //This test checks that the statements executed while recording are counted along with the rows they return
+    @Test
+    public void recordStatementsAndRows() throws Exception {
+        SqlStatistics statistics;
+        try (SqlStatistics recording = sqlInspector.startRecording()) {
+            statistics = recording;
+            Connection connection = dataSource.getConnection();
+            ResultSet resultSet = connection.prepareStatement("select * from images where id=?").executeQuery();
+            while (resultSet.next()) {
+            }
+            connection.createStatement().executeUpdate("delete from comment where image_id = 7");
+        }
+
+        assertThat(statistics.getStatementCount(), equalTo(2));
+        assertThat(statistics.getRowCount(), equalTo(2L));
+        assertThat(statistics.getStatementShapes().containsKey("delete from comment where image_id = ?"), equalTo(true));
+    }
+
+    //This test checks that the statements executed after the statistics are closed are not recorded
+    @Test
+    public void stopRecordingWhenClosed() throws Exception {
+        SqlStatistics statistics = sqlInspector.startRecording();
+        Connection connection = dataSource.getConnection();
+        connection.prepareStatement("select * from users").executeQuery();
+        statistics.close();
+        connection.prepareStatement("select * from users").executeQuery();
+
+        assertThat(statistics.getStatementCount(), equalTo(1));
+    }
+
+    //This test checks that a statement executed once per loaded row is reported as a likely N+1 query pattern
+    @Test
+    public void detectRepeatedStatements() throws Exception {
+        SqlStatistics statistics;
+        try (SqlStatistics recording = sqlInspector.startRecording()) {
+            statistics = recording;
+            Connection connection = dataSource.getConnection();
+            connection.prepareStatement("select * from images").executeQuery();
+            for (int userId = 1; userId <= 6; userId++) {
+                connection.createStatement().executeQuery("select * from users where id = " + userId);
+            }
+        }
+
+        Map<String, Integer> repeated = statistics.getRepeatedStatements(5);
+        assertThat(repeated.size(), equalTo(1));
+        assertThat(repeated.get("select * from users where id = ?"), equalTo(6));
+    }
+}
@@ -0,0 +1,128 @@
+package ImageHoster.config;
+
+import ImageHoster.controller.ImageController;
+import ImageHoster.model.User;
+import ImageHoster.model.UserProfile;
+import ImageHoster.service.ContentVersionService;
+import ImageHoster.service.FragmentCacheService;
+import ImageHoster.service.ImageService;
+import ImageHoster.service.ImageUploadPipeline;
+import ImageHoster.service.TagService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(ImageController.class)
+public class StaticAssetConfigTest {
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private static final String REVALIDATE = "public, no-cache";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AssetPipeline assetPipeline;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private TagService tagService;
+
+    @MockBean
+    private ContentVersionService contentVersionService;
+
+    @MockBean
+    private FragmentCacheService fragmentCacheService;
+
+    @MockBean
+    private ImageUploadPipeline imageUploadPipeline;
+
+    //This test checks that the links of the pages to the assets are rewritten to their fingerprinted paths
+    @Test
+    public void pageLinksVersionedAsset() throws Exception {
+        String versionedPath = assetPipeline.getVersionedPath("js/tag-suggest.js");
+        assertThat(versionedPath, startsWith("js/tag-suggest-"));
+
+        MockHttpSession session = new MockHttpSession();
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setFullName("Abhi Mahajan");
+        user.setProfile(userProfile);
+        session.setAttribute("loggeduser", user);
+        this.mockMvc.perform(get("/images/upload").session(session))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("src=\"/" + versionedPath + "\"")));
+    }
+
+    //This test checks that an asset is served under its fingerprinted path with a one year immutable Cache-Control, with the content of its plain path
+    @Test
+    public void getVersionedAsset() throws Exception {
+        String versionedPath = assetPipeline.getVersionedPath("css/tachyons.min.css");
+        assertNotNull(versionedPath);
+
+        byte[] plain = this.mockMvc.perform(get("/css/tachyons.min.css"))
+                .andReturn().getResponse().getContentAsByteArray();
+        this.mockMvc.perform(get("/" + versionedPath))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", IMMUTABLE))
+                .andExpect(content().contentTypeCompatibleWith("text/css"))
+                .andExpect(content().bytes(plain));
+    }
+
+    //This test checks that an asset is served under its plain path with a Cache-Control making the browsers revalidate it
+    @Test
+    public void getPlainAsset() throws Exception {
+        this.mockMvc.perform(get("/css/tachyons.min.css"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", REVALIDATE))
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andExpect(content().string(containsString(".dib")));
+    }
+
+    //This test checks that the gzip compressed copy of an asset is served to the browsers accepting it, and that the response varies on Accept-Encoding
+    @Test
+    public void getGzippedAsset() throws Exception {
+        String versionedPath = assetPipeline.getVersionedPath("css/tachyons.min.css");
+        byte[] plain = this.mockMvc.perform(get("/" + versionedPath))
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        byte[] gzipped = this.mockMvc.perform(get("/" + versionedPath).header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andExpect(header().string("Cache-Control", IMMUTABLE))
+                .andExpect(content().contentTypeCompatibleWith("text/css"))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertArrayEquals(plain, StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+    }
+
+    //This test checks that a fingerprint which is not the one of the current content is not served
+    @Test
+    public void getOutdatedVersionedAsset() throws Exception {
+        this.mockMvc.perform(get("/css/tachyons.min-0123456789abcdef0123456789abcdef.css"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,157 @@
+package ImageHoster.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the platform thread mode and the virtual thread mode (see VirtualThreadConfig) of a running application under many slow clients
+ * It is not a unit test and is not run by the build. Start the application in one mode, run the benchmark, then restart it in the other mode and run it again:
+ * java -cp target/test-classes ImageHoster.config.ThreadModeBenchmark http://localhost:8080 [slowClients] [slowSeconds] [fastRequests] [fastPath]
+ * The slow clients post a login form and send its body one byte at a time over slowSeconds, every one of them holds a request in progress while it is reading the body
+ * Meanwhile the fast requests get fastPath one after the other, their latency shows whether the requests of the other clients are still served
+ * The live threads and the used heap of the application are read from its metrics endpoint while the slow clients are connected
+ */
+public class ThreadModeBenchmark {
+
+    private static final Pattern METRIC_VALUE = Pattern.compile("\"statistic\":\"VALUE\",\"value\":([0-9.E]+)");
+
+    public static void main(String[] args) throws Exception {
+        URL base = new URL(args.length > 0 ? args[0] : "http://localhost:8080");
+        int slowClients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int slowSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int fastRequests = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        String fastPath = args.length > 4 ? args[4] : "/";
+
+        //Warms the application up and measures the latency without slow clients
+        measure(base, fastPath, fastRequests);
+        List<Long> idle = measure(base, fastPath, fastRequests);
+        double idleThreads = metric(base, "jvm.threads.live");
+        double idleHeap = metric(base, "jvm.memory.used?tag=area:heap");
+
+        String body = "username=slow&password=slow1@";
+        List<Socket> sockets = new ArrayList<>();
+        ScheduledExecutorService trickle = Executors.newScheduledThreadPool(4);
+        long interval = TimeUnit.SECONDS.toMillis(slowSeconds) / body.length();
+        for (int i = 0; i < slowClients; i++) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(base.getHost(), base.getPort()), 5000);
+            } catch (IOException e) {
+                System.out.println("Connected " + i + " slow clients: " + e);
+                break;
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /users/login HTTP/1.1\r\nHost: " + base.getHost() + "\r\nContent-Type: application/x-www-form-urlencoded\r\n"
+                    + "Content-Length: " + body.length() + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            sockets.add(socket);
+            for (int b = 0; b < body.length(); b++) {
+                byte next = (byte) body.charAt(b);
+                trickle.schedule(() -> {
+                    try {
+                        out.write(next);
+                        out.flush();
+                    } catch (IOException e) {
+                        //The application has given up on this client
+                    }
+                }, interval * (b + 1), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Long> loaded = measure(base, fastPath, fastRequests);
+        double loadedThreads = metric(base, "jvm.threads.live");
+        double loadedHeap = metric(base, "jvm.memory.used?tag=area:heap");
+
+        trickle.shutdown();
+        trickle.awaitTermination(slowSeconds * 2L, TimeUnit.SECONDS);
+        int answered = 0;
+        for (Socket socket : sockets) {
+            socket.setSoTimeout(30000);
+            try (InputStream in = socket.getInputStream()) {
+                answered += in.read() >= 0 ? 1 : 0;
+            } catch (IOException e) {
+                //Counted as not answered
+            } finally {
+                socket.close();
+            }
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.printf("%-28s %10s %10s %10s %12s %12s%n", "", "p50 ms", "p99 ms", "max ms", "live threads", "heap MB");
+        print("idle", idle, idleThreads, idleHeap);
+        print(sockets.size() + " slow clients", loaded, loadedThreads, loadedHeap);
+        System.out.printf("%d of %d slow clients answered in %d ms%n", answered, sockets.size(), elapsed);
+    }
+
+    //The latencies in milliseconds of the fast requests sent one after the other, -1 for a failed request
+    private static List<Long> measure(URL base, String path, int count) throws IOException {
+        List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) new URL(base, path).openConnection();
+            connection.setConnectTimeout(30000);
+            connection.setReadTimeout(60000);
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    //The whole page is read
+                }
+                latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException e) {
+                latencies.add(-1L);
+            }
+        }
+        return latencies;
+    }
+
+    private static double metric(URL base, String name) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(base, "/actuator/metrics/" + name).openConnection();
+            connection.setReadTimeout(60000);
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[65536];
+                int length = 0;
+                for (int read; (read = in.read(buffer, length, buffer.length - length)) > 0; ) {
+                    length += read;
+                }
+                Matcher value = METRIC_VALUE.matcher(new String(buffer, 0, length, StandardCharsets.UTF_8));
+                return value.find() ? Double.parseDouble(value.group(1)) : Double.NaN;
+            }
+        } catch (IOException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static void print(String label, List<Long> latencies, double threads, double heap) {
+        List<Long> sorted = new ArrayList<>();
+        int failed = 0;
+        for (Long latency : latencies) {
+            if (latency < 0) {
+                failed++;
+            } else {
+                sorted.add(latency);
+            }
+        }
+        Collections.sort(sorted);
+        long p50 = sorted.isEmpty() ? -1 : sorted.get(sorted.size() / 2);
+        long p99 = sorted.isEmpty() ? -1 : sorted.get(Math.min(sorted.size() - 1, sorted.size() * 99 / 100));
+        long max = sorted.isEmpty() ? -1 : sorted.get(sorted.size() - 1);
+        System.out.printf("%-28s %10d %10d %10d %12.0f %12.1f%s%n", label, p50, p99, max, threads, heap / (1024 * 1024),
+                failed > 0 ? "   " + failed + " failed" : "");
+    }
+}
@@ -0,0 +1,53 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ContentVersion;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.service.FragmentCacheService;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class GalleryFragmentsTest {
+
+    //This test checks that the listing cached for all the visitors never holds the session id of the visitor it was rendered for, when the session is tracked in the URLs
+    @Test
+    public void renderWithoutSessionId() {
+        SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+        ClassLoaderTemplateResolver templateResolver = new ClassLoaderTemplateResolver();
+        templateResolver.setPrefix("templates/");
+        templateResolver.setSuffix(".html");
+        templateEngine.setTemplateResolver(templateResolver);
+
+        //The response of a visitor whose browser does not send the session cookie
+        MockHttpServletResponse response = new MockHttpServletResponse() {
+            @Override
+            public String encodeURL(String url) {
+                return url + ";jsessionid=0123456789ABCDEF";
+            }
+        };
+        ServletWebRequest webRequest = new ServletWebRequest(new MockHttpServletRequest(), response);
+
+        ImageSummary image = new ImageSummary(7, "yellow dog", new Date(1000L), "Abhi", "abc");
+        ImagePage page = new ImagePage(Collections.singletonList(image), "1000_7", "1000_7");
+        FragmentCacheService fragmentCache = Mockito.mock(FragmentCacheService.class);
+
+        String gallery = GalleryFragments.render(fragmentCache, templateEngine, webRequest, new ContentVersion("f-0", -1), "images", "/images", null, null, null, () -> page);
+
+        assertThat(gallery, containsString("/images/7/file/raw?v=abc&amp;w=800"));
+        assertThat(gallery, containsString("/images?before=1000_7"));
+        assertThat(gallery, not(containsString("jsessionid")));
+        Mockito.verify(fragmentCache).putCard(Mockito.any(), Mockito.argThat(card -> !card.contains("jsessionid")));
+    }
+}
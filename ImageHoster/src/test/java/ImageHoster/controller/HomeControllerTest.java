@@ -1,8 +1,15 @@
 package ImageHoster.controller;
 
+import ImageHoster.model.ContentVersion;
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.service.ContentVersionService;
+import ImageHoster.service.FragmentCacheService;
 import ImageHoster.service.ImageService;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -10,10 +17,13 @@ import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.Collections;
+import java.util.Date;
+
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @RunWith(SpringRunner.class)
 @WebMvcTest(HomeController.class)
@@ -27,6 +37,19 @@ public class HomeControllerTest {
     @MockBean
     private ImageService imageService;
 
+    @MockBean
+    private ContentVersionService contentVersionService;
+
+    @MockBean
+    private FragmentCacheService fragmentCacheService;
+
+    //The pages are rendered unless a test stamps their content with a version the browser already has
+    @Before
+    public void setUpVersions() {
+        Mockito.when(contentVersionService.getFeedVersion()).thenReturn(new ContentVersion("f-0", -1));
+        Mockito.when(contentVersionService.getImageVersion(any())).thenReturn(new ContentVersion("i-0", -1));
+    }
+
     //This test checks the controller logic when the user sends the GET request to get all images in the application and checks whether the logic returns the html file 'index.html'
     @Test
     public void getAllImages() throws Exception {
@@ -34,4 +57,45 @@ public class HomeControllerTest {
                 .andExpect(view().name("index"))
                 .andExpect(content().string(containsString("Image Hoster")));
     }
+
+    //This test checks the controller logic when the user requests a page of images after a cursor and checks whether 'index.html' links to the previous and the next page
+    @Test
+    public void getAllImagesWithCursor() throws Exception {
+        ImageSummary image = new ImageSummary(7, "new", new Date(1000L), "Abhi", null);
+        ImagePage page = new ImagePage(Collections.singletonList(image), "1000_7", "1000_7");
+        Mockito.when(imageService.getImagePage("2000_9", null, 1)).thenReturn(page);
+
+        this.mockMvc.perform(get("/").param("before", "2000_9").param("size", "1"))
+                .andExpect(view().name("index"))
+                .andExpect(content().string(containsString("href=\"/?after=1000_7\"")))
+                .andExpect(content().string(containsString("href=\"/?before=1000_7\"")));
+    }
+
+    //This test checks the controller logic when the listing of the page is cached and checks whether the cached listing is shown without reading the images
+    @Test
+    public void getAllImagesFromCache() throws Exception {
+        Mockito.when(fragmentCacheService.galleryKey(Mockito.any(), Mockito.eq("index"), Mockito.isNull(), Mockito.isNull(), Mockito.isNull())).thenReturn("0:index:null:null:null");
+        Mockito.when(fragmentCacheService.getGallery("0:index:null:null:null")).thenReturn("<main id=\"images\">cached listing</main>");
+
+        this.mockMvc.perform(get("/"))
+                .andExpect(view().name("index"))
+                .andExpect(content().string(containsString("<main id=\"images\">cached listing</main>")));
+        Mockito.verify(imageService, Mockito.never()).getImagePage(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    //This test checks the controller logic when the browser revalidates its cached copy of a page of images after an image has been uploaded and checks whether the page is rendered again
+    @Test
+    public void getAllImagesAfterUpload() throws Exception {
+        Mockito.when(contentVersionService.getFeedVersion()).thenReturn(new ContentVersion("f-abc.1", 1000L));
+
+        this.mockMvc.perform(get("/").header("If-None-Match", "W/\"f-abc.1-u0\""))
+                .andExpect(status().isNotModified());
+        Mockito.verify(imageService, Mockito.never()).getImagePage(Mockito.any(), Mockito.any(), Mockito.any());
+
+        Mockito.when(contentVersionService.getFeedVersion()).thenReturn(new ContentVersion("f-abc.2", 2000L));
+        this.mockMvc.perform(get("/").header("If-None-Match", "W/\"f-abc.1-u0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"f-abc.2-u0\""))
+                .andExpect(view().name("index"));
+    }
 }
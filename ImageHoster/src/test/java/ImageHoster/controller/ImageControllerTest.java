@@ -1,26 +1,45 @@
 package ImageHoster.controller;
 
+import ImageHoster.model.ContentVersion;
 import ImageHoster.model.Image;
 import ImageHoster.model.Tag;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
+import ImageHoster.repository.BlobTooLargeException;
+import ImageHoster.service.ContentVersionService;
+import ImageHoster.service.FragmentCacheService;
 import ImageHoster.service.ImageService;
+import ImageHoster.service.ImageUploadPipeline;
 import ImageHoster.service.TagService;
+import ImageHoster.service.UnsupportedImageTypeException;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -39,6 +58,22 @@ public class ImageControllerTest {
     @MockBean
     private TagService tagService;
 
+    @MockBean
+    private ContentVersionService contentVersionService;
+
+    @MockBean
+    private FragmentCacheService fragmentCacheService;
+
+    @MockBean
+    private ImageUploadPipeline imageUploadPipeline;
+
+    //The pages are rendered unless a test stamps their content with a version the browser already has
+    @Before
+    public void setUpVersions() {
+        Mockito.when(contentVersionService.getFeedVersion()).thenReturn(new ContentVersion("f-0", -1));
+        Mockito.when(contentVersionService.getImageVersion(any())).thenReturn(new ContentVersion("i-0", -1));
+    }
+
     //This test checks the controller logic to get all the images after the user is logged in the application and checks whether the logic returns the html file 'images.html'
     @Test
     public void getUserImages() throws Exception {
@@ -85,7 +120,7 @@ public class ImageControllerTest {
         image.setDescription("This image is for testing purpose");
         image.setUser(user);
 
-        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageWithDetails(Mockito.anyInt())).thenReturn(image);
 
         this.mockMvc.perform(get("/images/1/new").session(session))
                 .andExpect(view().name("images/image"))
@@ -94,6 +129,147 @@ public class ImageControllerTest {
     }
 
 
+    //This test checks the controller logic when the browser revalidates its cached copy of the page of an image which has not changed and checks whether the logic answers '304 Not Modified' without loading the image
+    @Test
+    public void showImageNotModified() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Mockito.when(contentVersionService.getImageVersion(1)).thenReturn(new ContentVersion("i1-abc.7", 1000L));
+
+        this.mockMvc.perform(get("/images/1/new").session(session).header("If-None-Match", "W/\"i1-abc.7-u1\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "W/\"i1-abc.7-u1\""))
+                .andExpect(header().string("Cache-Control", "private, no-cache"))
+                .andExpect(content().string(""));
+        Mockito.verify(imageService, Mockito.never()).getImageWithDetails(Mockito.anyInt());
+
+        //The page rendered for another user is not validated
+        User otherUser = new User();
+        UserProfile otherProfile = new UserProfile();
+        otherProfile.setFullName("Other User");
+        otherUser.setProfile(otherProfile);
+        otherUser.setId(2);
+        MockHttpSession otherSession = new MockHttpSession();
+        otherSession.setAttribute("loggeduser", otherUser);
+
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("new");
+        image.setUser(user);
+        Mockito.when(imageService.getImageWithDetails(1)).thenReturn(image);
+
+        this.mockMvc.perform(get("/images/1/new").session(otherSession).header("If-None-Match", "W/\"i1-abc.7-u1\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"i1-abc.7-u2\""));
+    }
+
+
+    //This test checks the controller logic when the browser requests the file of an image and checks whether the bytes from the BlobStore are served with the MIME type and the ETag of the image
+    @Test
+    public void getImageFile() throws Exception {
+        Image image = imageWithFile();
+
+        this.mockMvc.perform(get("/images/1/file/raw").param("v", image.getContentHash()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().string("X-Content-Type-Options", "nosniff"))
+                .andExpect(header().string("ETag", "\"" + image.getContentHash() + "\""))
+                .andExpect(header().string("Cache-Control", containsString("immutable")))
+                .andExpect(content().bytes("some_image".getBytes()));
+    }
+
+
+    //This test checks the controller logic when the browser revalidates its cached copy of an image file and checks whether the logic answers '304 Not Modified' without a body
+    @Test
+    public void getImageFileNotModified() throws Exception {
+        Image image = imageWithFile();
+
+        this.mockMvc.perform(get("/images/1/file/raw").header("If-None-Match", "\"" + image.getContentHash() + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+
+    //This test checks the controller logic when the browser requests a byte range of an image file and checks whether only the requested bytes are served
+    @Test
+    public void getImageFileRange() throws Exception {
+        imageWithFile();
+
+        this.mockMvc.perform(get("/images/1/file/raw").header("Range", "bytes=5-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 5-9/10"))
+                .andExpect(content().bytes("image".getBytes()));
+    }
+
+    //This test checks the controller logic when the browser requests a rendition of an image file and checks whether the rendition is served instead of the original file
+    @Test
+    public void getImageFileRendition() throws Exception {
+        Image image = imageWithFile();
+        Mockito.when(imageService.getImageRendition(image, 200)).thenReturn(new ByteArrayResource("small".getBytes()) {
+            @Override
+            public String getFilename() {
+                return image.getContentHash() + ".w200.jpg";
+            }
+        });
+
+        this.mockMvc.perform(get("/images/1/file/raw").param("v", image.getContentHash()).param("w", "200"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/jpeg"))
+                .andExpect(header().string("ETag", "\"" + image.getContentHash() + "-w200\""))
+                .andExpect(content().bytes("small".getBytes()));
+    }
+
+    //This test checks the controller logic when the browser requests the file of an unknown image and checks whether the logic answers '404 Not Found'
+    @Test
+    public void getImageFileOfUnknownImage() throws Exception {
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(null);
+
+        this.mockMvc.perform(get("/images/42/file/raw"))
+                .andExpect(status().isNotFound());
+    }
+
+    //This test checks that an image titled 'raw' is shown on its page and not mistaken for the request of its file
+    @Test
+    public void showImageTitledRaw() throws Exception {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setFullName("Abhi Mahajan");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("raw");
+        image.setUser(user);
+        Mockito.when(imageService.getImageWithDetails(1)).thenReturn(image);
+
+        this.mockMvc.perform(get("/images/1/raw").session(session))
+                .andExpect(view().name("images/image"));
+        Mockito.verify(imageService, Mockito.never()).getImageFile(Mockito.any());
+    }
+
+    private Image imageWithFile() {
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("new");
+        image.setContentHash("0d6dd2d8a7b1d3f3c3a4f9e7a0b5c6d7e8f9a0b1c2d3e4f5a6b7c8d9e0f1a2b3");
+        image.setMimeType("image/png");
+
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageFile(image)).thenReturn(new ByteArrayResource("some_image".getBytes()));
+        return image;
+    }
+
+
     //This test checks the controller logic when the logged in user sends a GET request to the server to get the form to upload an image in the application and checks whether the logic returns the html file 'images/upload.html'
     @Test
     public void uploadImageWithGetRequest() throws Exception {
@@ -141,14 +317,104 @@ public class ImageControllerTest {
         Image image = new Image();
         image.setTitle("new");
         image.setDescription("This image is for testing purpose");
-        this.mockMvc.perform(multipart("/images/upload")
+        Mockito.when(imageUploadPipeline.upload(any(Image.class), any(), eq(Arrays.asList("dog", "labrador")))).thenReturn(CompletableFuture.completedFuture(image));
+
+        //The upload is handed to the pipeline and the request completes asynchronously once the image is committed
+        MvcResult result = this.mockMvc.perform(multipart("/images/upload")
                 .file(mockImage)
                 .param("tags", tags)
                 .flashAttr("newImage", image)
                 .session(session))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
                 .andExpect(redirectedUrl("/images"));
     }
 
+    //This test checks that the failure of a stage of the upload pipeline is the result of the upload request
+    @Test
+    public void uploadImageTooLarge() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        MockMultipartFile mockImage = new MockMultipartFile("file", "image.jpg", "image/jpeg", "some_image".getBytes());
+
+        CompletableFuture<Image> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new BlobTooLargeException(4));
+        Mockito.when(imageUploadPipeline.upload(any(Image.class), any(), any())).thenReturn(failed);
+
+        this.mockMvc.perform(multipart("/images/upload")
+                .file(mockImage)
+                .param("tags", "dog")
+                .session(session))
+                .andExpect(request().asyncStarted())
+                .andExpect(request().asyncResult(instanceOf(BlobTooLargeException.class)));
+    }
+
+    //This test checks that an upload request timing out before its image is stored cancels the upload and is answered with '503 Service Unavailable'
+    @Test
+    public void uploadImageTimeout() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        MockMultipartFile mockImage = new MockMultipartFile("file", "image.jpg", "image/jpeg", "some_image".getBytes());
+
+        CompletableFuture<Image> queued = new CompletableFuture<>();
+        Mockito.when(imageUploadPipeline.upload(any(Image.class), any(), any())).thenReturn(queued);
+
+        MvcResult result = this.mockMvc.perform(multipart("/images/upload")
+                .file(mockImage)
+                .param("tags", "dog")
+                .session(session))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MockAsyncContext asyncContext = (MockAsyncContext) result.getRequest().getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable());
+        assertTrue(queued.isCancelled());
+    }
+
+    //This test checks that an upload whose file is not a JPEG, PNG, GIF or WebP image, e.g. an SVG file sent as an image, is answered with '400 Bad Request'
+    @Test
+    public void uploadImageWithUnsupportedType() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        MockMultipartFile svg = new MockMultipartFile("file", "image.svg", "image/svg+xml", "<svg onload=\"alert(1)\"/>".getBytes());
+
+        CompletableFuture<Image> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new UnsupportedImageTypeException());
+        Mockito.when(imageUploadPipeline.upload(any(Image.class), any(), any())).thenReturn(failed);
+
+        MvcResult result = this.mockMvc.perform(multipart("/images/upload")
+                .file(svg)
+                .param("tags", "dog")
+                .session(session))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest());
+    }
+
     //This test checks the controller logic when the owner of the image sends the GET request to get the form to edit the image and checks whether the logic returns the html file 'images/edit.html'
     @Test
     public void editImageWithOwnerOfTheImage() throws Exception {
@@ -180,7 +446,7 @@ public class ImageControllerTest {
         tags.add(tag);
         image.setTags(tags);
 
-        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageWithDetails(Mockito.anyInt())).thenReturn(image);
 
         this.mockMvc.perform(get("/editImage")
                 .param("imageId", "1")
@@ -225,7 +491,7 @@ public class ImageControllerTest {
         image.setUser(user1);
 
 
-        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageWithDetails(Mockito.anyInt())).thenReturn(image);
 
         this.mockMvc.perform(get("/editImage")
                 .param("imageId", "1")
@@ -233,6 +499,141 @@ public class ImageControllerTest {
                 .andExpect(model().attribute("editError", "Only the owner of the image can edit the image"));
     }
 
+    //This test checks the controller logic when the owner of the image submits the edited details without a new file and checks whether only the details are updated and the logic redirects to the page of the image
+    @Test
+    public void editImageSubmitWithoutFile() throws Exception {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(1);
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername("Abhi");
+        user.setPassword("password1@");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        MockMultipartFile noFile = new MockMultipartFile("file", "", "application/octet-stream", new byte[0]);
+
+        this.mockMvc.perform(multipart("/editImage")
+                .file(noFile)
+                .param("imageId", "1")
+                .param("title", "edited")
+                .param("version", "3")
+                .param("tags", "dog")
+                .session(session)
+                .with(request -> {
+                    request.setMethod("PUT");
+                    return request;
+                }))
+                .andExpect(redirectedUrl("/images/1/edited"));
+
+        Mockito.verify(imageService, Mockito.never()).storeImageFile(Mockito.any(), Mockito.any());
+        Mockito.verify(imageService).updateImage(Mockito.argThat(image -> image.getVersion() == 3 && "edited".equals(image.getTitle())), Mockito.eq(false));
+    }
+
+    //This test checks the controller logic when the image has been edited by someone else since the edit form was shown and checks whether the logic returns the html file 'images/edit.html' again with the error message
+    @Test
+    public void editImageSubmitWithStaleVersion() throws Exception {
+        User user = new User();
+        UserProfile userProfile = new UserProfile();
+        userProfile.setId(1);
+        userProfile.setEmailAddress("a@gmail.com");
+        userProfile.setFullName("Abhi Mahajan");
+        userProfile.setMobileNumber("9876543210");
+        user.setProfile(userProfile);
+        user.setId(1);
+        user.setUsername("Abhi");
+        user.setPassword("password1@");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Image image = new Image();
+        image.setId(1);
+        image.setTitle("changed meanwhile");
+        image.setVersion(4);
+
+        Mockito.doThrow(new OptimisticLockingFailureException("stale")).when(imageService).updateImage(Mockito.any(), Mockito.anyBoolean());
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageWithDetails(Mockito.anyInt())).thenReturn(image);
+
+        MockMultipartFile noFile = new MockMultipartFile("file", "", "application/octet-stream", new byte[0]);
+
+        this.mockMvc.perform(multipart("/editImage")
+                .file(noFile)
+                .param("imageId", "1")
+                .param("title", "edited")
+                .param("version", "3")
+                .param("tags", "dog")
+                .session(session)
+                .with(request -> {
+                    request.setMethod("PUT");
+                    return request;
+                }))
+                .andExpect(view().name("images/edit"))
+                .andExpect(model().attribute("editError", "The image has been changed by someone else while you were editing it. Please apply your changes again"))
+                .andExpect(model().attribute("image", image));
+    }
+
+    //This test checks the controller logic when the image has been deleted while it was being edited and checks whether the logic answers '404 Not Found'
+    @Test
+    public void editImageSubmitOfDeletedImage() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        Mockito.doThrow(new OptimisticLockingFailureException("deleted")).when(imageService).updateImage(Mockito.any(), Mockito.anyBoolean());
+        Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(null);
+
+        MockMultipartFile noFile = new MockMultipartFile("file", "", "application/octet-stream", new byte[0]);
+
+        this.mockMvc.perform(multipart("/editImage")
+                .file(noFile)
+                .param("imageId", "1")
+                .param("title", "edited")
+                .param("version", "3")
+                .param("tags", "dog")
+                .session(session)
+                .with(request -> {
+                    request.setMethod("PUT");
+                    return request;
+                }))
+                .andExpect(status().isNotFound());
+    }
+
+    //This test checks that an edit without the version of the image it is based on is refused instead of overwriting the image
+    @Test
+    public void editImageSubmitWithoutVersion() throws Exception {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("Abhi");
+
+        session = new MockHttpSession();
+        session.setAttribute("loggeduser", user);
+
+        MockMultipartFile noFile = new MockMultipartFile("file", "", "application/octet-stream", new byte[0]);
+
+        this.mockMvc.perform(multipart("/editImage")
+                .file(noFile)
+                .param("imageId", "1")
+                .param("title", "edited")
+                .param("tags", "dog")
+                .session(session)
+                .with(request -> {
+                    request.setMethod("PUT");
+                    return request;
+                }))
+                .andExpect(status().isBadRequest());
+        Mockito.verify(imageService, Mockito.never()).updateImage(Mockito.any(), Mockito.anyBoolean());
+    }
+
     //This test checks the controller logic when the owner of the image sends the DELETE request to delete the image and checks whether the logic returns the html file 'images.html'
     @Test
     public void deleteImageWithOwnerOfTheImage() throws Exception {
@@ -301,6 +702,7 @@ public class ImageControllerTest {
 
 
         Mockito.when(imageService.getImage(Mockito.anyInt())).thenReturn(image);
+        Mockito.when(imageService.getImageWithDetails(Mockito.anyInt())).thenReturn(image);
 
         this.mockMvc.perform(delete("/deleteImage")
                 .param("imageId", "1")
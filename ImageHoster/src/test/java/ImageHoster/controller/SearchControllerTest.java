@@ -0,0 +1,58 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.SearchPage;
+import ImageHoster.service.SearchService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(SearchController.class)
+public class SearchControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private SearchService searchService;
+
+    //This test checks the controller logic for the search of images and checks whether the logic returns the html file 'search.html' with the requested page of results
+    @Test
+    public void searchImages() throws Exception {
+        ImageSummary dog = new ImageSummary(7, "yellow dog", new Date(), "Abhi", "abc");
+        SearchPage page = new SearchPage("dog", Arrays.asList(dog), 2, 1, 3);
+        Mockito.when(searchService.search("dog", 2)).thenReturn(page);
+
+        this.mockMvc.perform(get("/search").param("q", "dog").param("page", "2"))
+                .andExpect(view().name("search"))
+                .andExpect(model().attribute("page", page))
+                .andExpect(content().string(containsString("yellow dog")))
+                .andExpect(content().string(containsString("href=\"/images/7/yellow dog\"")))
+                .andExpect(content().string(containsString("/images/7/file/raw?v=abc&amp;w=800")))
+                .andExpect(content().string(containsString("/search?q=dog&amp;page=3")))
+                .andExpect(content().string(containsString("/search?q=dog&amp;page=1")));
+    }
+
+    //This test checks the controller logic when the search form is requested without a query
+    @Test
+    public void searchWithoutQuery() throws Exception {
+        Mockito.when(searchService.search(null, 1)).thenReturn(new SearchPage(null, Arrays.asList(), 1, 20, 0));
+
+        this.mockMvc.perform(get("/search"))
+                .andExpect(view().name("search"))
+                .andExpect(content().string(containsString("Search images")));
+    }
+}
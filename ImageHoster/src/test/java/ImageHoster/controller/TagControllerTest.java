@@ -0,0 +1,75 @@
+package ImageHoster.controller;
+
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.TagPage;
+import ImageHoster.model.TagSuggestion;
+import ImageHoster.service.TagIndexService;
+import ImageHoster.service.TagService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(TagController.class)
+public class TagControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private TagIndexService tagIndexService;
+
+    @MockBean
+    private TagService tagService;
+
+    //This test checks the controller logic for the images of a single tag and checks whether the logic returns the html file 'tags.html' with the images of the tag
+    @Test
+    public void getImagesWithTag() throws Exception {
+        ImageSummary dog = new ImageSummary(7, "yellow dog", new Date(), "Abhi", "abc");
+        TagPage page = new TagPage(Collections.singletonList("dog"), Collections.emptyList(), Arrays.asList(dog), 1, 20, 1);
+        Mockito.when(tagIndexService.getImages(Collections.singletonList("dog"), Collections.emptyList(), 1)).thenReturn(page);
+
+        this.mockMvc.perform(get("/tags/dog"))
+                .andExpect(view().name("tags"))
+                .andExpect(model().attribute("page", page))
+                .andExpect(content().string(containsString("yellow dog")))
+                .andExpect(content().string(containsString("href=\"/images/7/yellow dog\"")));
+    }
+
+    //This test checks the controller logic for the images having several tags and checks whether the tag names are split and the link to the next page keeps them
+    @Test
+    public void getImagesWithAllAndAnyTags() throws Exception {
+        ImageSummary dog = new ImageSummary(7, "yellow dog", new Date(), "Abhi", "abc");
+        TagPage page = new TagPage(Arrays.asList("dog", "yellow"), Arrays.asList("beach", "park"), Arrays.asList(dog), 2, 1, 3);
+        Mockito.when(tagIndexService.getImages(Arrays.asList("dog", "yellow"), Arrays.asList("beach", "park"), 2)).thenReturn(page);
+
+        this.mockMvc.perform(get("/tags").param("all", "dog, yellow,").param("any", "beach,park").param("page", "2"))
+                .andExpect(view().name("tags"))
+                .andExpect(model().attribute("page", page))
+                .andExpect(content().string(containsString("/tags?all=dog,yellow&amp;any=beach,park&amp;page=3")));
+    }
+
+    //This test checks the controller logic for the suggestion of tags and checks whether the suggested tags are returned as JSON
+    @Test
+    public void suggestTags() throws Exception {
+        Mockito.when(tagService.suggestTags("do", 10)).thenReturn(Arrays.asList(new TagSuggestion("dog", 22), new TagSuggestion("doodle", 1)));
+
+        this.mockMvc.perform(get("/tags/suggest").param("prefix", "do"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=30"))
+                .andExpect(content().json("[{\"name\":\"dog\",\"count\":22},{\"name\":\"doodle\",\"count\":1}]"));
+    }
+}
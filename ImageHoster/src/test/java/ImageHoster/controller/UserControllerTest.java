@@ -1,7 +1,11 @@
 package ImageHoster.controller;
 
+import ImageHoster.model.ImagePage;
+import ImageHoster.model.ImageSummary;
 import ImageHoster.model.User;
 import ImageHoster.model.UserProfile;
+import ImageHoster.service.ContentVersionService;
+import ImageHoster.service.FragmentCacheService;
 import ImageHoster.service.ImageService;
 import ImageHoster.service.UserService;
 import org.junit.Test;
@@ -14,6 +18,9 @@ import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.Collections;
+import java.util.Date;
+
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -36,6 +43,12 @@ public class UserControllerTest {
     @MockBean
     private ImageService imageService;
 
+    @MockBean
+    private FragmentCacheService fragmentCacheService;
+
+    @MockBean
+    private ContentVersionService contentVersionService;
+
     //This test checks the controller logic for user signup when user requests for a registration form and checks whether the logic returns the html file 'users/registration.html'
     @Test
     public void signupWithGetRequest() throws Exception {
@@ -161,8 +174,13 @@ public class UserControllerTest {
         session = new MockHttpSession();
         session.setAttribute("loggeduser", user);
 
+        ImageSummary image = new ImageSummary(7, "yellow dog", new Date(), "Abhi", "abc");
+        Mockito.when(imageService.getImagePage(null, null, null)).thenReturn(new ImagePage(Collections.singletonList(image), null, null));
+
         this.mockMvc.perform(post("/users/logout").session(session))
                 .andExpect(view().name("index"))
-                .andExpect(content().string(containsString("Image Hoster")));
+                .andExpect(content().string(containsString("Image Hoster")))
+                .andExpect(content().string(containsString("yellow dog")))
+                .andExpect(content().string(containsString("/images/7/file/raw?v=abc&amp;w=800")));
     }
 }
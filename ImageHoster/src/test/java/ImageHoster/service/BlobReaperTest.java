@@ -0,0 +1,60 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.BlobStore;
+import ImageHoster.repository.ImageRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class BlobReaperTest {
+
+    @Mock
+    private BlobStore blobStore;
+
+    @Mock
+    private ImageRepository imageRepository;
+
+    @InjectMocks
+    private BlobReaper blobReaper;
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(blobReaper, "delaySeconds", 0L);
+        ReflectionTestUtils.setField(blobReaper, "maxAttempts", 5);
+        blobReaper.init();
+        Mockito.when(imageRepository.countImagesWithContentHash("hash")).thenReturn(0L);
+    }
+
+    @After
+    public void tearDown() {
+        blobReaper.shutdown();
+    }
+
+    //This test checks that the file of a deleted image is deleted once no image references it
+    @Test
+    public void unreferencedFileIsDeleted() throws Exception {
+        blobReaper.enqueue("hash");
+
+        Mockito.verify(blobStore, Mockito.timeout(5000)).delete("hash");
+    }
+
+    //This test checks that the file held by an upload in progress is not deleted, and is deleted once the upload has released it without inserting its image
+    @Test
+    public void heldFileIsNotDeleted() throws Exception {
+        blobReaper.hold("hash");
+        blobReaper.enqueue("hash");
+
+        Mockito.verify(imageRepository, Mockito.after(500).never()).countImagesWithContentHash("hash");
+        Mockito.verify(blobStore, Mockito.never()).delete("hash");
+
+        blobReaper.release("hash");
+        Mockito.verify(blobStore, Mockito.timeout(5000)).delete("hash");
+    }
+}
@@ -0,0 +1,71 @@
+package ImageHoster.service;
+
+import ImageHoster.repository.ContentVersionRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class ContentVersionServiceTest {
+
+    //The 'content_versions' table shared by the nodes, as name -> {version, modified}
+    private final Map<String, Object[]> table = new HashMap<>();
+
+    //Two nodes of the application sharing the same database
+    private final ContentVersionService nodeA = new ContentVersionService();
+    private final ContentVersionService nodeB = new ContentVersionService();
+
+    @Before
+    public void setUp() {
+        ContentVersionRepository repository = Mockito.mock(ContentVersionRepository.class);
+        Mockito.doAnswer(invocation -> {
+            for (String name : invocation.<Collection<String>>getArgument(0)) {
+                Object[] row = table.get(name);
+                long version = row == null ? 1 : ((Number) row[0]).longValue() + 1;
+                table.put(name, new Object[]{version, new Date(1000L * version)});
+            }
+            return null;
+        }).when(repository).stamp(any());
+        Mockito.when(repository.getVersion(anyString())).thenAnswer(invocation -> table.get(invocation.<String>getArgument(0)));
+        ReflectionTestUtils.setField(nodeA, "contentVersionRepository", repository);
+        ReflectionTestUtils.setField(nodeB, "contentVersionRepository", repository);
+    }
+
+    //This test checks that a change of an image made through one node changes the versions served by every node
+    @Test
+    public void imageChangedOnAnotherNode() {
+        String imageVersion = nodeA.getImageVersion(5).getTag();
+        String feedVersion = nodeA.getFeedVersion().getTag();
+        assertEquals(imageVersion, nodeB.getImageVersion(5).getTag());
+        assertEquals(-1, nodeA.getImageVersion(5).getLastModified());
+
+        nodeB.imageChanged(5);
+
+        assertNotEquals(imageVersion, nodeA.getImageVersion(5).getTag());
+        assertNotEquals(feedVersion, nodeA.getFeedVersion().getTag());
+        assertEquals(nodeB.getImageVersion(5).getTag(), nodeA.getImageVersion(5).getTag());
+        assertEquals(1000L, nodeA.getImageVersion(5).getLastModified());
+    }
+
+    //This test checks that a comment changes the version of the page of the image but not the version of the feed
+    @Test
+    public void commentsChangedOnAnotherNode() {
+        String imageVersion = nodeA.getImageVersion(5).getTag();
+        String feedVersion = nodeA.getFeedVersion().getTag();
+
+        nodeB.commentsChanged(5);
+
+        assertNotEquals(imageVersion, nodeA.getImageVersion(5).getTag());
+        assertEquals(feedVersion, nodeA.getFeedVersion().getTag());
+    }
+}
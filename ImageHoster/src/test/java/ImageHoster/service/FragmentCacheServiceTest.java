@@ -0,0 +1,36 @@
+package ImageHoster.service;
+
+import ImageHoster.model.ContentVersion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FragmentCacheServiceTest {
+
+    private final FragmentCacheService fragmentCacheService = new FragmentCacheService();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(fragmentCacheService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(fragmentCacheService, "galleriesMaxBytes", 1048576L);
+        ReflectionTestUtils.setField(fragmentCacheService, "galleriesTtlSeconds", 300L);
+        ReflectionTestUtils.setField(fragmentCacheService, "cardsMaxBytes", 1048576L);
+        fragmentCacheService.init();
+    }
+
+    //This test checks that a gallery cached by a node is no longer served once an image has been changed through another node, which raises no ImageChangedEvent on this one
+    @Test
+    public void galleryOfOutdatedFeedVersion() {
+        String key = fragmentCacheService.galleryKey(new ContentVersion("f-abc.1", 1000L), "index", null, null, null);
+        fragmentCacheService.putGallery(key, "<main>old listing</main>");
+        assertEquals("<main>old listing</main>", fragmentCacheService.getGallery(key));
+
+        //The version of the feed read from the database after the change made through the other node
+        String newKey = fragmentCacheService.galleryKey(new ContentVersion("f-abc.2", 2000L), "index", null, null, null);
+        assertNull(fragmentCacheService.getGallery(newKey));
+    }
+}
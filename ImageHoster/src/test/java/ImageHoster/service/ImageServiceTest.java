@@ -0,0 +1,124 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.repository.BlobStore;
+import ImageHoster.repository.ImageRepository;
+import ImageHoster.repository.StoredBlob;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class ImageServiceTest {
+
+    @Mock
+    private ImageRepository imageRepository;
+
+    @Mock
+    private BlobStore blobStore;
+
+    @Mock
+    private BlobReaper blobReaper;
+
+    @Mock
+    private SearchService searchService;
+
+    @Mock
+    private TagIndexService tagIndexService;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private ContentVersionService contentVersionService;
+
+    @Mock
+    private RenditionService renditionService;
+
+    @InjectMocks
+    private ImageService imageService;
+
+    //This test checks that an SVG file is refused even though the client sends it as an image, as it may carry a script
+    @Test
+    public void storeImageFileRefusesSvg() throws Exception {
+        byte[] svg = "<svg xmlns=\"http://www.w3.org/2000/svg\" onload=\"alert(document.cookie)\"/>".getBytes(StandardCharsets.UTF_8);
+
+        assertRefused(new MockMultipartFile("file", "image.svg", "image/svg+xml", svg));
+    }
+
+    //This test checks that an HTML file is refused whatever content type the client sends along with it
+    @Test
+    public void storeImageFileRefusesHtml() throws Exception {
+        byte[] html = "<html><script>alert(document.cookie)</script></html>".getBytes(StandardCharsets.UTF_8);
+
+        assertRefused(new MockMultipartFile("file", "image.jpg", "image/jpeg", html));
+        assertRefused(new MockMultipartFile("file", "page.html", "text/html", html));
+    }
+
+    //This test checks that the type of an accepted file is the one detected from its first bytes and not the one sent by the client
+    @Test
+    public void storeImageFileDetectsType() throws Exception {
+        Mockito.when(blobStore.put(any(InputStream.class), anyLong())).thenReturn(new StoredBlob("abc", 12));
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13};
+        Image image = new Image();
+
+        imageService.storeImageFile(image, new MockMultipartFile("file", "image.gif", "image/gif", png));
+
+        assertEquals("image/png", image.getMimeType());
+        assertEquals("abc", image.getContentHash());
+    }
+
+    //This test checks that the file replaced by an edit is handed to the BlobReaper once the image is updated
+    @Test
+    public void updateImageReapsReplacedFile() {
+        Image image = new Image();
+        image.setId(1);
+        image.setContentHash("new");
+        Mockito.when(imageRepository.updateImage(image, true)).thenReturn("old");
+
+        imageService.updateImage(image, true);
+
+        Mockito.verify(blobReaper).enqueue("old");
+        Mockito.verify(blobReaper, Mockito.never()).enqueue("new");
+    }
+
+    //This test checks that the file stored for an edit which is rejected is handed to the BlobReaper, as no image references it
+    @Test
+    public void updateImageReapsFileOfRejectedEdit() {
+        Image image = new Image();
+        image.setId(1);
+        image.setContentHash("new");
+        Mockito.when(imageRepository.updateImage(image, true)).thenThrow(new ObjectOptimisticLockingFailureException(Image.class, 1));
+
+        try {
+            imageService.updateImage(image, true);
+            fail("The rejected edit has been applied");
+        } catch (ObjectOptimisticLockingFailureException e) {
+            Mockito.verify(blobReaper).enqueue("new");
+            Mockito.verify(searchService, Mockito.never()).index(image);
+        }
+    }
+
+    private void assertRefused(MockMultipartFile file) throws Exception {
+        try {
+            imageService.storeImageFile(new Image(), file);
+            fail("The file " + file.getOriginalFilename() + " has been accepted");
+        } catch (UnsupportedImageTypeException e) {
+            Mockito.verify(blobStore, Mockito.never()).put(any(InputStream.class), anyLong());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class ImageUploadPipelineTest {
+
+    @Mock
+    private ImageService imageService;
+
+    @Mock
+    private TagService tagService;
+
+    @Mock
+    private BlobReaper blobReaper;
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private ImageUploadPipeline imageUploadPipeline;
+
+    private final MockMultipartFile file = new MockMultipartFile("file", "image.jpg", "image/jpeg", new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF});
+
+    @Before
+    public void setUp() throws Exception {
+        ReflectionTestUtils.setField(imageUploadPipeline, "storeThreads", 1);
+        ReflectionTestUtils.setField(imageUploadPipeline, "tagThreads", 1);
+        ReflectionTestUtils.setField(imageUploadPipeline, "persistThreads", 1);
+        ReflectionTestUtils.setField(imageUploadPipeline, "maxInFlight", 4);
+        imageUploadPipeline.init();
+
+        Mockito.doAnswer(invocation -> {
+            invocation.<Image>getArgument(0).setContentHash("hash-of-" + invocation.<Image>getArgument(0).getTitle());
+            return null;
+        }).when(imageService).storeImageFile(any(), any());
+        Mockito.when(imageService.getImageFile(any())).thenReturn(new ByteArrayResource(new byte[0]));
+    }
+
+    @After
+    public void tearDown() {
+        imageUploadPipeline.shutdown();
+    }
+
+    //This test checks that the stored file of an upload whose insert fails is handed to the BlobReaper
+    @Test
+    public void failedInsertReapsStoredFile() throws Exception {
+        Mockito.doThrow(new IllegalStateException("insert failed")).when(imageService).uploadImage(any());
+
+        CompletableFuture<Image> upload = imageUploadPipeline.upload(image("first"), file, Collections.singletonList("dog"));
+
+        try {
+            upload.get(5, TimeUnit.SECONDS);
+            fail("The failed upload has completed");
+        } catch (ExecutionException e) {
+            Mockito.verify(blobReaper, Mockito.timeout(5000)).enqueue("hash-of-first");
+        }
+    }
+
+    //This test checks that the file of an upload is held from the store stage until the image is committed, and stored again if it has been reaped meanwhile
+    @Test
+    public void reapedFileIsStoredAgain() throws Exception {
+        Image image = image("first");
+        Mockito.when(imageService.getImageFile(image)).thenReturn(null);
+
+        imageUploadPipeline.upload(image, file, Collections.singletonList("dog")).get(5, TimeUnit.SECONDS);
+
+        InOrder inOrder = Mockito.inOrder(blobReaper, imageService);
+        inOrder.verify(blobReaper).hold("hash-of-first");
+        inOrder.verify(imageService).storeImageFile(image, file);
+        inOrder.verify(imageService).uploadImage(image);
+        Mockito.verify(blobReaper, Mockito.timeout(5000)).release("hash-of-first");
+        Mockito.verify(imageService, Mockito.times(2)).storeImageFile(image, file);
+        Mockito.verify(blobReaper, Mockito.never()).enqueue(any());
+    }
+
+    //This test checks that a cancelled upload waiting in the queue of the store stage is neither stored nor inserted
+    @Test
+    public void cancelledUploadIsSkipped() throws Exception {
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Image first = image("first");
+        Image second = image("second");
+        Mockito.doAnswer(invocation -> {
+            storing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            first.setContentHash("hash-of-first");
+            return null;
+        }).when(imageService).storeImageFile(same(first), any());
+
+        CompletableFuture<Image> running = imageUploadPipeline.upload(first, file, Collections.singletonList("dog"));
+        assertTrue(storing.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Image> queued = imageUploadPipeline.upload(second, file, Collections.singletonList("dog"));
+
+        assertTrue(queued.cancel(false));
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+
+        Mockito.verify(imageService, Mockito.timeout(5000)).uploadImage(first);
+        Mockito.verify(imageService, Mockito.never()).storeImageFile(same(second), any());
+        Mockito.verify(imageService, Mockito.never()).uploadImage(second);
+        //An upload whose image has been inserted can no longer be cancelled
+        assertFalse(running.cancel(false));
+    }
+
+    private static Image image(String title) {
+        Image image = new Image();
+        image.setTitle(title);
+        return image;
+    }
+}
@@ -0,0 +1,98 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Image;
+import ImageHoster.model.ImageSummary;
+import ImageHoster.model.Tag;
+import ImageHoster.model.TagPage;
+import ImageHoster.repository.ImageRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class TagIndexServiceTest {
+
+    @Mock
+    private ImageRepository imageRepository;
+
+    @Mock
+    private TagService tagService;
+
+    @InjectMocks
+    private TagIndexService tagIndexService;
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(tagIndexService, "pageSize", 20);
+        Mockito.when(imageRepository.getImageSummaries(any())).thenAnswer(invocation -> {
+            List<ImageSummary> summaries = new ArrayList<>();
+            for (Integer imageId : invocation.<Collection<Integer>>getArgument(0)) {
+                summaries.add(new ImageSummary(imageId, "image " + imageId, new Date(), "Abhi", "abc"));
+            }
+            return summaries;
+        });
+        //The database holds no image yet, the index is built empty
+        tagIndexService.buildIndex();
+    }
+
+    //This test checks that editing the same images many times keeps the numbers of the index bounded, and the images in the order of their last edit
+    @Test
+    public void editsKeepIndexBounded() {
+        Image first = imageWithTags(1, "dog");
+        Image second = imageWithTags(2, "dog", "beach");
+        Image third = imageWithTags(3, "cat");
+        tagIndexService.index(first);
+        tagIndexService.index(second);
+        tagIndexService.index(third);
+
+        for (int edit = 0; edit < 100000; edit++) {
+            tagIndexService.index(edit % 2 == 0 ? second : first);
+            assertTrue("The index has grown to " + tagIndexService.getNumberRange() + " numbers for 3 images", tagIndexService.getNumberRange() <= 1024 + 3 + 1);
+        }
+
+        TagPage dogs = tagIndexService.getImages(Collections.singletonList("dog"), Collections.emptyList(), 1);
+        assertEquals(Arrays.asList(1, 2), idsOf(dogs));
+        assertEquals(2, dogs.getTotalHits());
+        TagPage cats = tagIndexService.getImages(Collections.singletonList("cat"), Collections.emptyList(), 1);
+        assertEquals(Collections.singletonList(3), idsOf(cats));
+        TagPage beach = tagIndexService.getImages(Collections.singletonList("dog"), Collections.singletonList("beach"), 1);
+        assertEquals(Collections.singletonList(2), idsOf(beach));
+    }
+
+    private static Image imageWithTags(int id, String... tagNames) {
+        Image image = new Image();
+        image.setId(id);
+        List<Tag> tags = new ArrayList<>();
+        for (String tagName : tagNames) {
+            Tag tag = new Tag();
+            tag.setName(tagName);
+            tags.add(tag);
+        }
+        image.setTags(tags);
+        return image;
+    }
+
+    private static List<Integer> idsOf(TagPage page) {
+        List<Integer> ids = new ArrayList<>();
+        for (ImageSummary image : page.getImages()) {
+            ids.add(image.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,66 @@
+package ImageHoster.service;
+
+import ImageHoster.model.Tag;
+import ImageHoster.repository.TagRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class TagServiceTest {
+
+    @Mock
+    private TagRepository tagRepository;
+
+    @InjectMocks
+    private TagService tagService;
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(tagService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(tagService, "cacheMaxSize", 100L);
+        ReflectionTestUtils.setField(tagService, "negativeTtlSeconds", 30L);
+        tagService.init();
+    }
+
+    //This test checks that a tag the database considers equal to the requested name, while its name has another key in Java, is returned instead of null
+    @Test
+    public void findOrCreateTagsWithDatabaseLowerCase() {
+        //The lower() of the database equates the two names, Java does not
+        Tag tag = new Tag("STRASSE");
+        tag.setId(3);
+        Mockito.when(tagRepository.findTags(any())).thenReturn(Collections.singletonList(tag));
+        Mockito.when(tagRepository.findTag("Straße")).thenReturn(tag);
+
+        List<Tag> tags = tagService.findOrCreateTags(Collections.singletonList("Straße"));
+
+        assertEquals(1, tags.size());
+        assertSame(tag, tags.get(0));
+
+        //The tag is then served from the tag cache under the requested name
+        Mockito.reset(tagRepository);
+        assertEquals(3, (int) tagService.findOrCreateTags(Collections.singletonList("straße")).get(0).getId());
+        Mockito.verifyZeroInteractions(tagRepository);
+    }
+
+    //This test checks that a tag missing right after its insert fails the lookup instead of adding a null tag to the image
+    @Test(expected = IllegalStateException.class)
+    public void findOrCreateTagsWithMissingTag() {
+        Mockito.when(tagRepository.findTags(any())).thenReturn(Collections.emptyList());
+
+        tagService.findOrCreateTags(Collections.singletonList("dog"));
+    }
+}